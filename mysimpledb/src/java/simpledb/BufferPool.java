@@ -1,8 +1,31 @@
 package simpledb;
 
 import java.io.IOException;
-import java.util.List;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,9 +34,26 @@ import java.util.ArrayList;
  * <p/>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are granted by a {@link LockManager}
+ * before the pool monitor is taken, so a transaction blocked on a lock
+ * never holds up other transactions' page accesses. Deadlocks are resolved
+ * by aborting the transaction in the cycle that has dirtied the fewest
+ * pages.
+ * <p/>
+ * By default the pool runs NO STEAL: dirty pages stay resident until their
+ * transaction commits, and are written then. Once a {@link PageWriter} is
+ * started, dirty pages may be written early, by the writer or by an
+ * eviction that finds no clean page. Every such write is preceded by an
+ * UPDATE record forced to the log, and the page's before image is kept
+ * until its transaction ends, so an abort can put it back.
+ * The writer forces the log and writes the page without holding the pool
+ * monitor, so reads and evictions do not wait behind it.
+ * <p/>
+ * The pool can be resized while in use, and each table can be given a
+ * minimum and maximum number of frames, so that one busy table cannot
+ * take over the whole pool.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /**
@@ -29,17 +69,190 @@ public class BufferPool {
      * constructor instead.
      */
     public static final int DEFAULT_PAGES = 50;
+
+    /**
+     * Scans of tables with more pages than this fraction of the pool read
+     * through a {@link BufferRing} by default.
+     */
+    public static final double DEFAULT_SCAN_RING_THRESHOLD = 1.0;
+
+    /**
+     * Largest number of frames in a scan's ring.
+     */
+    public static final int SCAN_RING_FRAMES = 16;
     
-    private int numpages;
-    private List<Page> pages = new ArrayList<Page>();
+    private volatile int numpages;
+
+    /**
+     * The frames holding cached pages. A page lives in exactly one frame,
+     * and the page table maps its id to that frame's slot. The frame
+     * arrays are replaced, under the pool monitor, when the pool is
+     * resized.
+     */
+    private volatile AtomicReferenceArray<Page> frames;
+    private final ConcurrentHashMap<PageId, Integer> pageTable;
+    private final LinkedList<Integer> freeFrames = new LinkedList<Integer>();
+    // pages being written by writeOut without the monitor; guarded by this
+    private final HashSet<PageId> writing = new HashSet<PageId>();
+    // frames taken off the free list by loads that are still reading;
+    // guarded by this
+    private int loadsInFlight = 0;
+    private int[] pinCounts;
+    private final EvictionPolicy policy;
+    private final LockManager lockManager;
+    // page bytes of heap file pages, if frames live off the Java heap
+    private volatile FrameArena arena;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Limits on the number of frames one table may hold.
+     */
+    private static class TableQuota {
+        final int minFrames;
+        final int maxFrames;
+
+        TableQuota(int minFrames, int maxFrames) {
+            this.minFrames = minFrames;
+            this.maxFrames = maxFrames;
+        }
+    }
+
+    // quotas by table id; guarded by this
+    private final HashMap<Integer, TableQuota> quotas = new HashMap<Integer, TableQuota>();
+    // number of resident pages of each table; guarded by this
+    private final HashMap<Integer, Integer> residentPages = new HashMap<Integer, Integer>();
+
+    // pages each live transaction has dirtied through this pool
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> dirtiedPages =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    // before images of pages written while their dirtier was still live
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Page>> stolenPages =
+            new ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Page>>();
+
+    private volatile double scanRingThreshold = DEFAULT_SCAN_RING_THRESHOLD;
+
+    // null unless dirty pages may be written before commit
+    private volatile PageWriter writer = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictionWrites = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    // background reads for sequential scans; its thread exits when idle
+    private final ExecutorService prefetcher = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BufferPool prefetcher");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // bumped on every page write, so prefetched copies read before the
+    // write are dropped rather than cached
+    private final AtomicLong writeEpoch = new AtomicLong();
+
+    // reads started by getPage or getPageAsync that have not been
+    // installed yet
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> pendingReads =
+            new ConcurrentHashMap<PageId, CompletableFuture<Page>>();
+
+    /**
+     * Decides which frames are candidates for eviction: a frame must hold
+     * a page, must not be pinned and must be clean.
+     */
+    private final EvictionPolicy.Evictable evictable = new EvictionPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            Page page = frames.get(frame);
+            return page != null && pinCounts[frame] == 0 && page.isDirty() == null;
+        }
+    };
+
+    private static final EvictionPolicy.Evictable ALL_FRAMES = new EvictionPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            return true;
+        }
+    };
+
+    /**
+     * Frames whose table would stay at or above its minimum quota without
+     * them. Only consulted under the pool monitor.
+     */
+    private final EvictionPolicy.Evictable aboveMinimum = new EvictionPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            Page page = frames.get(frame);
+            if (page == null) {
+                return false;
+            }
+            TableQuota quota = quotas.get(page.getId().getTableId());
+            return quota == null || getResidentPages(page.getId().getTableId()) > quota.minFrames;
+        }
+    };
+
+    /**
+     * Frames that may be evicted after writing them out first.
+     */
+    private final EvictionPolicy.Evictable stealable = new EvictionPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            return frames.get(frame) != null && pinCounts[frame] == 0;
+        }
+    };
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using LRU
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        this.numpages = numPages;      
+        this(numPages, new LruPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * pages according to the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy; must not be shared with
+     *                 another BufferPool.
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * pages according to the given policy.
+     * <p/>
+     * In off-heap mode, all frames are preallocated in a direct
+     * {@link FrameArena} of numPages * {@link #getPageSize()} bytes. Heap
+     * file pages are read straight into their frame, and the frame doubles
+     * as the page's before image, so a cached page no longer keeps a
+     * second copy of its bytes on the Java heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy; must not be shared with
+     *                 another BufferPool.
+     * @param offHeap  whether to keep page frames in an off-heap arena
+     */
+    public BufferPool(int numPages, EvictionPolicy policy, boolean offHeap) {
+        this.numpages = numPages;
+        this.arena = offHeap ? new FrameArena(numPages, getPageSize()) : null;
+        this.frames = new AtomicReferenceArray<Page>(numPages);
+        this.pageTable = new ConcurrentHashMap<PageId, Integer>(numPages * 2);
+        this.pinCounts = new int[numPages];
+        for (int i = 0; i < numPages; i++) {
+            freeFrames.add(i);
+        }
+        this.policy = policy;
+        policy.setNumFrames(numPages);
+        this.lockManager = new LockManager(LockManager.DEFAULT_STRIPES, new LockManager.WorkEstimator() {
+            public int workDone(TransactionId tid) {
+                Set<PageId> pages = dirtiedPages.get(tid);
+                return pages == null ? 0 : pages.size();
+            }
+        });
     }
 
     public static int getPageSize() {
@@ -68,30 +281,822 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        if(! pages.isEmpty()){
-	    	for(Page page : pages){
-	        	if(page.getId().equals(pid)){
-	        		return page;
-	        	}
-	        }
-        }
-        int tableid = pid.getTableId();
-        Catalog catalog = Database.getCatalog();
-        DbFile dbfile = catalog.getDatabaseFile(tableid);
-        if(dbfile == null){
-        	throw new DbException("tableid did not return a dbfile");
-        }
-        Page page = dbfile.readPage(pid);
-        if(page == null){
-        	throw new DbException("pageid did not return a page");
-        }
-        this.pages.add(page);
-        if(this.pages.size() > this.numpages){
-        	this.pages.remove(0);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Like {@link #getPage(TransactionId, PageId, Permissions)}, but if the
+     * page has to be read, it goes into a frame of the given ring rather
+     * than one chosen by the eviction policy.
+     *
+     * @param ring the calling scan's ring, or null to use the main pool
+     * @see #newScanRing(int)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
+        int frame = lookup(pid);
+        Page page = frame == -1 ? null : pageAt(frame, pid);
+        if (page == null) {
+            CompletableFuture<Page> loading = new CompletableFuture<Page>();
+            CompletableFuture<Page> pending;
+            synchronized (this) {
+                frame = lookup(pid);
+                if (frame == -1) {
+                    pending = pendingReads.putIfAbsent(pid, loading);
+                } else {
+                    pending = null;
+                    page = frames.get(frame);
+                }
+            }
+            if (page == null) {
+                if (pending != null) {
+                    // being read by another request; share its read
+                    return awaitRead(pid, pending);
+                }
+                misses.incrementAndGet();
+                return load(pid, ring, loading);
+            }
+        }
+        hits.incrementAndGet();
+        policy.recordAccess(frame);
+        return page;
+    }
+
+    /**
+     * Waits for a read of the given page that another request started.
+     */
+    private static Page awaitRead(PageId pid, CompletableFuture<Page> pending) throws DbException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while reading page " + pid);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DbException) {
+                throw (DbException) e.getCause();
+            }
+            throw new DbException("could not read page " + pid + ": " + e.getCause());
+        }
+    }
+
+    /**
+     * Like {@link #getPage(TransactionId, PageId, Permissions)}, but returns
+     * without waiting if the page has to be read. The lock is acquired
+     * before this returns, and may block as usual; only the read is
+     * asynchronous. Concurrent requests for a page that is being read share
+     * the one read.
+     *
+     * @return a future that completes with the page once it is resident, or
+     * exceptionally if it cannot be read or no frame can be freed for it
+     * @see DbFile#readPageAsync
+     */
+    public CompletableFuture<Page> getPageAsync(TransactionId tid, final PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
+        int frame = lookup(pid);
+        Page page = frame == -1 ? null : pageAt(frame, pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            policy.recordAccess(frame);
+            return CompletableFuture.completedFuture(page);
+        }
+        final CompletableFuture<Page> result = new CompletableFuture<Page>();
+        CompletableFuture<Page> pending = pendingReads.putIfAbsent(pid, result);
+        if (pending != null) {
+            return pending;
+        }
+        misses.incrementAndGet();
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        file.readPageAsync(pid).whenComplete((read, error) -> {
+            // the pages are locked by their readers, so nobody can have
+            // changed them on disk while they were read
+            Page installed = null;
+            try {
+                if (error == null) {
+                    installed = installRead(read);
+                }
+            } catch (DbException e) {
+                error = e;
+            } finally {
+                pendingReads.remove(pid, result);
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(installed);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Puts a page that was just read into a free frame, unless another
+     * read put it in the pool first. In off-heap mode the page is copied
+     * into the frame, as by getPages.
+     *
+     * @return the resident page
+     */
+    private synchronized Page installRead(Page page) throws DbException {
+        int frame = lookup(page.getId());
+        if (frame != -1) {
+            return frames.get(frame);
+        }
+        int tableId = page.getId().getTableId();
+        frame = takeFreeFrame(tableId);
+        page = intoFrame(Database.getCatalog().getDatabaseFile(tableId), frame, page);
+        place(frame, page);
+        return page;
+    }
+
+    /**
+     * Retrieves several pages, like calling
+     * {@link #getPage(TransactionId, PageId, Permissions)} for each in turn,
+     * but reads the pages that are not resident with one
+     * {@link DbFile#readPages} call per table, so that adjacent pages are
+     * read together. Locks are acquired once per page, in the order of
+     * pids.
+     * <p/>
+     * In a pool smaller than the batch, a page read here may be evicted to make
+     * room for a later one; the page returned for it is still the page as
+     * read, and markDirtied puts it back in the pool if it is changed.
+     *
+     * @return the pages, in the order of pids
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        HashMap<PageId, Page> found = new HashMap<PageId, Page>();
+        LinkedHashMap<Integer, List<PageId>> missing = new LinkedHashMap<Integer, List<PageId>>();
+        for (PageId pid : pids) {
+            if (found.containsKey(pid)) {
+                continue;
+            }
+            lockManager.acquire(tid, pid, perm);
+            int frame = lookup(pid);
+            Page page = frame == -1 ? null : pageAt(frame, pid);
+            found.put(pid, page);
+            if (page != null) {
+                hits.incrementAndGet();
+                policy.recordAccess(frame);
+                continue;
+            }
+            List<PageId> ofTable = missing.get(pid.getTableId());
+            if (ofTable == null) {
+                ofTable = new ArrayList<PageId>();
+                missing.put(pid.getTableId(), ofTable);
+            }
+            ofTable.add(pid);
+        }
+        for (Map.Entry<Integer, List<PageId>> e : missing.entrySet()) {
+            DbFile dbfile = Database.getCatalog().getDatabaseFile(e.getKey());
+            List<Page> read;
+            try {
+                // the pages are locked by tid, so nobody changes them on
+                // disk while they are read without the pool monitor
+                read = dbfile.readPages(e.getValue());
+            } catch (IOException ex) {
+                throw new DbException("could not read pages of table " + e.getKey() + ": " + ex.getMessage());
+            }
+            synchronized (this) {
+                for (Page page : read) {
+                    misses.incrementAndGet();
+                    int frame = lookup(page.getId());
+                    if (frame != -1) {
+                        // read by someone else meanwhile; theirs is the one
+                        found.put(page.getId(), frames.get(frame));
+                        continue;
+                    }
+                    frame = takeFreeFrame(e.getKey());
+                    page = intoFrame(dbfile, frame, page);
+                    place(frame, page);
+                    found.put(page.getId(), page);
+                }
+            }
+        }
+        ArrayList<Page> pages = new ArrayList<Page>(pids.size());
+        for (PageId pid : pids) {
+            pages.add(found.get(pid));
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the page to place in the given frame for a page that was read
+     * onto the heap. In off-heap mode, a page of a HeapFile that is not
+     * mapped is copied into the frame, as load would have read it, so the
+     * pool holds no heap copies of page bytes; other pages are kept as
+     * they are. The frame is given back if the copy fails.
+     */
+    private synchronized Page intoFrame(DbFile dbfile, int frame, Page page) throws DbException {
+        if (arena == null || !(dbfile instanceof HeapFile) || ((HeapFile) dbfile).isMapped()) {
+            return page;
+        }
+        ByteBuffer buf = arena.frame(frame);
+        try {
+            page.writePageData(buf.duplicate());
+            return ((HeapFile) dbfile).newPage((HeapPageId) page.getId(), buf);
+        } catch (IOException e) {
+            freeFrames.addFirst(frame);
+            throw new DbException("could not read page " + page.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the frame holding the page with the given id without taking the
+     * pool monitor. The frame is re-checked after the page table lookup
+     * since an eviction may have recycled it in between.
+     *
+     * @return the frame of the cached page, or -1 if it is not resident
+     */
+    private int lookup(PageId pid) {
+        Integer frame = pageTable.get(pid);
+        if (frame == null || pageAt(frame, pid) == null) {
+            return -1;
+        }
+        return frame;
+    }
+
+    /**
+     * @return the page in the given frame if it is the page with the given
+     * id, else null
+     */
+    private Page pageAt(int frame, PageId pid) {
+        AtomicReferenceArray<Page> f = frames;
+        if (frame >= f.length()) {
+            return null;
+        }
+        Page page = f.get(frame);
+        if (page == null || !page.getId().equals(pid)) {
+            return null;
         }
         return page;
     }
 
+    /**
+     * Starts a background writer that keeps a fraction of this pool's
+     * frames clean, if one is not running already. From now on the pool
+     * runs STEAL.
+     *
+     * @return the writer, whose rate and target may be tuned
+     */
+    public synchronized PageWriter startPageWriter() {
+        if (writer == null) {
+            writer = new PageWriter(this);
+            for (Set<PageId> pids : dirtiedPages.values()) {
+                for (PageId pid : pids) {
+                    writer.enqueue(pid);
+                }
+            }
+            writer.start();
+        }
+        return writer;
+    }
+
+    /**
+     * Stops the background writer, if any, and returns to NO STEAL for
+     * pages dirtied from now on.
+     */
+    public void stopPageWriter() {
+        PageWriter w;
+        synchronized (this) {
+            w = writer;
+            writer = null;
+        }
+        if (w != null) {
+            w.shutdown();
+        }
+    }
+
+    /**
+     * @return the background writer, or null if none is running
+     */
+    public PageWriter getPageWriter() {
+        return writer;
+    }
+
+    /**
+     * @return the number of dirty pages an eviction had to write itself
+     * because no clean page was available
+     */
+    public long getEvictionWriteCount() {
+        return evictionWrites.get();
+    }
+
+    /**
+     * @return the number of frames in this pool
+     */
+    public int getNumPages() {
+        return numpages;
+    }
+
+    /**
+     * @return true if the page is resident, without locking or touching it
+     */
+    public boolean isCached(PageId pid) {
+        return lookup(pid) != -1;
+    }
+
+    /**
+     * @return the number of pages read in by {@link #prefetch}
+     */
+    public long getPrefetchCount() {
+        return prefetched.get();
+    }
+
+    /**
+     * Reads pages [firstPgno, firstPgno + count) of file into the pool in
+     * the background, with a single read. No locks are taken; the pages are
+     * locked as usual when they are requested with getPage. Pages that are
+     * already resident are left alone, and prefetching stops early rather
+     * than evict a dirty or pinned page.
+     *
+     * @return a future that completes once the pages are resident
+     * @see ReadAhead
+     */
+    public Future<?> prefetch(HeapFile file, int firstPgno, int count) {
+        return prefetch(file, firstPgno, count, null);
+    }
+
+    /**
+     * Like {@link #prefetch(HeapFile, int, int)}, but puts the pages into
+     * frames of the given ring.
+     */
+    public Future<?> prefetch(final HeapFile file, final int firstPgno, final int count,
+                              final BufferRing ring) {
+        return prefetcher.submit(new Runnable() {
+            public void run() {
+                try {
+                    readAhead(file, firstPgno, count, ring);
+                } catch (IOException e) {
+                    // the scan will read the pages itself
+                }
+            }
+        });
+    }
+
+    private void readAhead(HeapFile file, int first, int count, BufferRing ring) throws IOException {
+        int tableId = file.getId();
+        while (count > 0 && lookup(new HeapPageId(tableId, first)) != -1) {
+            first++;
+            count--;
+        }
+        if (count == 0) {
+            return;
+        }
+        long epoch = writeEpoch.get();
+        byte[] data = file.readPageRange(first, count);
+        int pageSize = getPageSize();
+        // frames filled by this read; it must not evict its own pages
+        final HashSet<Integer> filled = new HashSet<Integer>();
+        EvictionPolicy.Evictable notFilled = new EvictionPolicy.Evictable() {
+            public boolean canEvict(int frame) {
+                return !filled.contains(frame) && evictable.canEvict(frame);
+            }
+        };
+        synchronized (this) {
+            if (writeEpoch.get() != epoch) {
+                return;
+            }
+            for (int i = 0; i < data.length / pageSize; i++) {
+                HeapPageId pid = new HeapPageId(tableId, first + i);
+                if (lookup(pid) != -1 || pendingReads.containsKey(pid)) {
+                    continue;
+                }
+                int frame = ring == null ? -1 : takeRingFrame(ring, notFilled);
+                if (frame == -1) {
+                    frame = takeCleanFrame(tableId, notFilled);
+                }
+                if (frame == -1) {
+                    return;
+                }
+                Page page = null;
+                try {
+                    if (arena != null) {
+                        ByteBuffer buf = arena.frame(frame);
+                        buf.duplicate().put(data, i * pageSize, pageSize);
+                        page = file.newPage(pid, buf);
+                    } else {
+                        page = file.newPage(pid, Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize));
+                    }
+                } finally {
+                    if (page == null) {
+                        freeFrames.addFirst(frame);
+                    }
+                }
+                place(frame, page);
+                if (ring != null) {
+                    addToRing(ring, frame, pid);
+                }
+                filled.add(frame);
+                prefetched.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #takeFreeFrame}, but never writes a page out.
+     *
+     * @param candidates the frames that may be evicted, all of them clean
+     * @return a free frame, or -1 if there is none and no candidate
+     */
+    private synchronized int takeCleanFrame(int tableId, EvictionPolicy.Evictable candidates) {
+        int victim;
+        if (atQuota(tableId)) {
+            victim = policy.chooseVictim(both(ofTable(tableId), candidates));
+        } else if (freeFrames.isEmpty()) {
+            victim = policy.chooseVictim(both(aboveMinimum, candidates));
+        } else {
+            return freeFrames.removeFirst();
+        }
+        if (victim == -1) {
+            return -1;
+        }
+        removeFrame(victim);
+        return freeFrames.removeFirst();
+    }
+
+    /**
+     * @return true if this pool keeps its frames in an off-heap arena
+     */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /**
+     * Reads a page that is not resident into a free frame, evicting a page
+     * first if there is none. The frame is reserved under the pool monitor,
+     * but the read itself is done without it, so hits and other misses do
+     * not wait for the disk. Requests for the page that come in meanwhile
+     * wait on loading, which the caller has registered in pendingReads; it
+     * is completed once the page is resident.
+     */
+    private Page load(PageId pid, BufferRing ring, CompletableFuture<Page> loading)
+            throws DbException {
+        DbFile dbfile;
+        int frame;
+        FrameArena a;
+        Page page = null;
+        DbException error = null;
+        synchronized (this) {
+            try {
+                dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                if (dbfile == null) {
+                    throw new DbException("tableid did not return a dbfile");
+                }
+                frame = ring == null ? -1 : takeRingFrame(ring, evictable);
+                if (frame == -1) {
+                    frame = takeFreeFrame(pid.getTableId());
+                }
+            } catch (DbException e) {
+                pendingReads.remove(pid, loading);
+                loading.completeExceptionally(e);
+                throw e;
+            }
+            a = arena;
+            loadsInFlight++;
+        }
+        try {
+            // the page is locked by its reader, so nobody changes it on
+            // disk while it is read
+            if (a != null && dbfile instanceof HeapFile && !((HeapFile) dbfile).isMapped()) {
+                page = ((HeapFile) dbfile).readPageInto(pid, a.frame(frame));
+            } else {
+                page = dbfile.readPage(pid);
+            }
+            if (page == null) {
+                error = new DbException("pageid did not return a page");
+            }
+        } catch (IOException e) {
+            error = new DbException("could not read page " + pid + ": " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                if (page == null || error != null) {
+                    freeFrames.addFirst(frame);
+                } else {
+                    place(frame, page);
+                    if (ring != null) {
+                        addToRing(ring, frame, pid);
+                    }
+                }
+                pendingReads.remove(pid, loading);
+                if (--loadsInFlight == 0) {
+                    notifyAll();
+                }
+            }
+        }
+        if (error != null) {
+            loading.completeExceptionally(error);
+            throw error;
+        }
+        loading.complete(page);
+        return page;
+    }
+
+    /**
+     * Sets the fraction of the pool a table must exceed for scans over it
+     * to use a ring; values above the table sizes in use turn rings off.
+     */
+    public void setScanRingThreshold(double fraction) {
+        scanRingThreshold = fraction;
+    }
+
+    /**
+     * Creates a ring for a scan over a table of the given size, if the
+     * table is large enough to warrant one.
+     *
+     * @return a new ring, or null if the scan should use the main pool
+     */
+    public BufferRing newScanRing(int tablePages) {
+        if (tablePages <= scanRingThreshold * numpages) {
+            return null;
+        }
+        return new BufferRing(Math.max(2, Math.min(SCAN_RING_FRAMES, numpages / 4)));
+    }
+
+    /**
+     * Reclaims the ring's next frame, if it still holds the page the ring
+     * put there and that page is one of the candidates for eviction.
+     *
+     * @return the reclaimed frame, now free, or -1
+     */
+    private synchronized int takeRingFrame(BufferRing ring, EvictionPolicy.Evictable candidates) {
+        int frame = ring.frames[ring.next];
+        if (frame == -1 || frame >= numpages) {
+            return -1;
+        }
+        Page page = frames.get(frame);
+        if (page == null || !page.getId().equals(ring.pages[ring.next]) || !candidates.canEvict(frame)) {
+            return -1;
+        }
+        removeFrame(frame);
+        freeFrames.removeLast();
+        return frame;
+    }
+
+    private synchronized void addToRing(BufferRing ring, int frame, PageId pid) {
+        ring.frames[ring.next] = frame;
+        ring.pages[ring.next] = pid;
+        ring.next = (ring.next + 1) % ring.frames.length;
+    }
+
+    /**
+     * Puts a page that is not resident into a free frame, evicting a page
+     * first if there is none.
+     */
+    private synchronized void install(Page page) throws DbException {
+        place(takeFreeFrame(page.getId().getTableId()), page);
+    }
+
+    /**
+     * Removes a frame from the free list for a page of the given table,
+     * evicting a page first if the list is empty or the table has used up
+     * its quota.
+     */
+    private synchronized int takeFreeFrame(int tableId) throws DbException {
+        if (atQuota(tableId)) {
+            evictPage(ofTable(tableId));
+        } else if (freeFrames.isEmpty()) {
+            evictPage(aboveMinimum);
+        }
+        return freeFrames.removeFirst();
+    }
+
+    private synchronized void place(int frame, Page page) {
+        frames.set(frame, page);
+        pageTable.put(page.getId(), frame);
+        policy.recordLoad(frame, page.getId());
+        int tableId = page.getId().getTableId();
+        residentPages.put(tableId, getResidentPages(tableId) + 1);
+    }
+
+    /**
+     * @return the number of resident pages of the given table
+     */
+    public synchronized int getResidentPages(int tableId) {
+        Integer n = residentPages.get(tableId);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Limits the number of frames pages of the given table may occupy.
+     * Frames are never taken from a table that holds minFrames or fewer,
+     * and a table that holds maxFrames can only get more pages in by
+     * evicting its own. Pages beyond a new maximum are evicted if they are
+     * clean, and otherwise left until they can be.
+     *
+     * @param tableId   the table's id in the Catalog
+     * @param minFrames frames reserved for the table
+     * @param maxFrames frames the table may use at most
+     * @throws IllegalArgumentException if the limits are inconsistent, or
+     *                                  the reservations of all tables
+     *                                  would exceed the pool
+     */
+    public synchronized void setTableQuota(int tableId, int minFrames, int maxFrames) {
+        if (minFrames < 0 || maxFrames < minFrames || maxFrames < 1) {
+            throw new IllegalArgumentException("invalid quota [" + minFrames + ", " + maxFrames + "]");
+        }
+        TableQuota old = quotas.get(tableId);
+        int reserved = reservedFrames() - (old == null ? 0 : old.minFrames) + minFrames;
+        if (reserved > numpages) {
+            throw new IllegalArgumentException("quotas would reserve " + reserved
+                    + " frames of " + numpages);
+        }
+        quotas.put(tableId, new TableQuota(minFrames, maxFrames));
+        EvictionPolicy.Evictable candidates = both(ofTable(tableId), evictable);
+        while (getResidentPages(tableId) > maxFrames) {
+            int victim = policy.chooseVictim(candidates);
+            if (victim == -1) {
+                break;
+            }
+            removeFrame(victim);
+        }
+    }
+
+    /**
+     * Removes the quota of the given table, if any.
+     */
+    public synchronized void clearTableQuota(int tableId) {
+        quotas.remove(tableId);
+    }
+
+    private synchronized int reservedFrames() {
+        int reserved = 0;
+        for (TableQuota quota : quotas.values()) {
+            reserved += quota.minFrames;
+        }
+        return reserved;
+    }
+
+    /**
+     * @return true if the table may not occupy another frame
+     */
+    private synchronized boolean atQuota(int tableId) {
+        TableQuota quota = quotas.get(tableId);
+        return quota != null && getResidentPages(tableId) >= quota.maxFrames;
+    }
+
+    /**
+     * @return the frames holding pages of the given table
+     */
+    private EvictionPolicy.Evictable ofTable(final int tableId) {
+        return new EvictionPolicy.Evictable() {
+            public boolean canEvict(int frame) {
+                Page page = frames.get(frame);
+                return page != null && page.getId().getTableId() == tableId;
+            }
+        };
+    }
+
+    /**
+     * @return the frames that are in both a and b
+     */
+    private static EvictionPolicy.Evictable both(final EvictionPolicy.Evictable a,
+                                                 final EvictionPolicy.Evictable b) {
+        return new EvictionPolicy.Evictable() {
+            public boolean canEvict(int frame) {
+                return a.canEvict(frame) && b.canEvict(frame);
+            }
+        };
+    }
+
+    /**
+     * Changes the number of frames in the pool while it is in use.
+     * Shrinking evicts pages until the rest fit, then moves pages out of
+     * the frames that go away; growing adds free frames. In off-heap mode
+     * the arena is reallocated at the new size and the resident pages are
+     * copied over.
+     *
+     * @throws DbException if too many pages are dirty or pinned to shrink
+     *                     to the new size
+     */
+    public synchronized void resize(int newSize) throws DbException {
+        if (newSize < 1) {
+            throw new IllegalArgumentException("pool must have at least one frame");
+        }
+        if (newSize < reservedFrames()) {
+            throw new DbException("quotas reserve more than " + newSize + " frames");
+        }
+        // loads in flight hold frames that are in neither the free list
+        // nor the page table; let them land first
+        while (loadsInFlight > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while resizing");
+            }
+        }
+        int oldSize = numpages;
+        while (oldSize - freeFrames.size() > newSize) {
+            evictPage(ALL_FRAMES);
+        }
+        // compact the pages in frames that go away into free ones below
+        for (int frame = newSize; frame < oldSize; frame++) {
+            if (frames.get(frame) != null) {
+                moveFrame(frame, takeFreeFrameBelow(newSize));
+            }
+        }
+
+        AtomicReferenceArray<Page> newFrames = new AtomicReferenceArray<Page>(newSize);
+        int[] newPinCounts = new int[newSize];
+        int keep = Math.min(oldSize, newSize);
+        for (int frame = 0; frame < keep; frame++) {
+            newFrames.set(frame, frames.get(frame));
+            newPinCounts[frame] = pinCounts[frame];
+        }
+        if (arena != null) {
+            FrameArena newArena = new FrameArena(newSize, arena.frameSize());
+            for (int frame = 0; frame < keep; frame++) {
+                Page page = newFrames.get(frame);
+                if (page instanceof HeapPage) {
+                    ((HeapPage) page).moveFrame(newArena.frame(frame));
+                }
+            }
+            arena = newArena;
+        }
+        Iterator<Integer> it = freeFrames.iterator();
+        while (it.hasNext()) {
+            if (it.next() >= newSize) {
+                it.remove();
+            }
+        }
+        for (int frame = oldSize; frame < newSize; frame++) {
+            freeFrames.add(frame);
+        }
+        pinCounts = newPinCounts;
+        frames = newFrames;
+        numpages = newSize;
+        policy.setNumFrames(newSize);
+    }
+
+    private synchronized int takeFreeFrameBelow(int limit) {
+        Iterator<Integer> it = freeFrames.iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (frame < limit) {
+                it.remove();
+                return frame;
+            }
+        }
+        throw new IllegalStateException("no free frame below " + limit);
+    }
+
+    /**
+     * Moves the page in one frame to another, free, frame.
+     */
+    private synchronized void moveFrame(int from, int to) {
+        Page page = frames.get(from);
+        if (arena != null && page instanceof HeapPage) {
+            ((HeapPage) page).moveFrame(arena.frame(to));
+        }
+        frames.set(to, page);
+        pinCounts[to] = pinCounts[from];
+        pageTable.put(page.getId(), to);
+        frames.set(from, null);
+        pinCounts[from] = 0;
+        policy.recordRemoval(from);
+        policy.recordLoad(to, page.getId());
+    }
+
+    /**
+     * Pins the page with the given id, if it is resident, so that it cannot
+     * be evicted until every pin has been released with {@link #unpinPage}.
+     *
+     * @return true if the page was resident and is now pinned
+     */
+    public synchronized boolean pinPage(PageId pid) {
+        int frame = lookup(pid);
+        if (frame == -1) {
+            return false;
+        }
+        pinCounts[frame]++;
+        return true;
+    }
+
+    /**
+     * Releases one pin taken with {@link #pinPage}.
+     */
+    public synchronized void unpinPage(PageId pid) {
+        int frame = lookup(pid);
+        if (frame != -1 && pinCounts[frame] > 0) {
+            pinCounts[frame]--;
+        }
+    }
+
+    /**
+     * @return the number of getPage calls served from a resident frame
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read from disk
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -102,8 +1107,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3|lab4                                                         // cosc460
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -112,17 +1116,14 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3|lab4                                                         // cosc460
+        transactionComplete(tid, true);
     }
 
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3|lab4                                                         // cosc460
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -134,8 +1135,119 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3|lab4                                                         // cosc460
+        try {
+            synchronized (this) {
+                if (commit) {
+                    flushPages(tid);
+                    // pages written before now, by Transaction.commit or the
+                    // page writer, are clean already, but their before
+                    // images must move up to the committed state too
+                    for (Page page : pagesTouchedBy(tid)) {
+                        page.setBeforeImage();
+                    }
+                } else {
+                    // the disk holds the pages as they were before tid
+                    // touched them, except for those written early. Writes
+                    // still in flight must land before they are undone, and
+                    // no new ones start while the monitor is held from here.
+                    Set<PageId> pids = dirtiedPages.get(tid);
+                    if (pids != null) {
+                        awaitWrites(pids);
+                    }
+                    Map<PageId, Page> stolen = stolenPages.get(tid);
+                    if (stolen != null) {
+                        for (Page before : stolen.values()) {
+                            DbFile file = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
+                            writeEpoch.incrementAndGet();
+                            file.writePage(before);
+                        }
+                    }
+                    if (pids != null) {
+                        for (PageId pid : pids) {
+                            discardPage(pid);
+                            if (pid instanceof HeapPageId) {
+                                // the page may have room again that tid took
+                                HeapFile.noteFreeSpace((HeapPageId) pid, true);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            stolenPages.remove(tid);
+            dirtiedPages.remove(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Forces the writes to the mapped files among the tables of pids; the
+     * writes to other files went straight to their channels.
+     */
+    private void forceMappedFiles(Set<PageId> pids) throws IOException {
+        if (pids == null) {
+            return;
+        }
+        Set<Integer> forced = new HashSet<Integer>();
+        for (PageId pid : pids) {
+            if (forced.add(pid.getTableId())) {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                if (file instanceof HeapFile && ((HeapFile) file).isMapped()) {
+                    ((HeapFile) file).force();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the resident pages tid has dirtied, whether or not they have
+     * been written since
+     */
+    private synchronized ArrayList<Page> pagesTouchedBy(TransactionId tid) {
+        ArrayList<Page> touched = new ArrayList<Page>();
+        Set<PageId> pids = dirtiedPages.get(tid);
+        if (pids == null) {
+            return touched;
+        }
+        for (PageId pid : pids) {
+            int frame = lookup(pid);
+            if (frame != -1) {
+                touched.add(frames.get(frame));
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * @return the resident pages last dirtied by tid
+     */
+    private synchronized ArrayList<Page> pagesDirtiedBy(TransactionId tid) {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        Set<PageId> pids = dirtiedPages.get(tid);
+        if (pids == null) {
+            return dirtied;
+        }
+        for (PageId pid : pids) {
+            int frame = lookup(pid);
+            if (frame != -1 && tid.equals(frames.get(frame).isDirty())) {
+                dirtied.add(frames.get(frame));
+            }
+        }
+        return dirtied;
+    }
+
+    /**
+     * @return the number of deadlocks the lock manager has detected
+     */
+    public long getDeadlocksDetected() {
+        return lockManager.getDeadlocksDetected();
+    }
+
+    /**
+     * @return the number of transactions aborted to break deadlocks
+     */
+    public long getDeadlockVictims() {
+        return lockManager.getVictimsAborted();
     }
 
     /**
@@ -154,8 +1266,8 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        markDirtied(tid, file.insertTuple(tid, t));
     }
 
     /**
@@ -172,19 +1284,76 @@ public class BufferPool {
      */
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        markDirtied(tid, file.deleteTuple(tid, t));
+    }
+
+    /**
+     * Remove the tuples with the specified RecordIds from a table, as
+     * {@link #deleteTuple} does one at a time. The RecordIds should be
+     * sorted by page, so that each page is fetched, locked and marked dirty
+     * once.
+     *
+     * @param tid     the transaction deleting the tuples.
+     * @param tableId the table to delete the tuples from
+     * @param rids    the RecordIds of the tuples to delete
+     */
+    public void deleteTuples(TransactionId tid, int tableId, List<RecordId> rids)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        markDirtied(tid, file.deleteTuples(tid, rids));
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Marks pages modified by tid as dirty, and caches any of them that are
+     * not resident yet (such as pages just appended to a file).
+     *
+     * @see Vacuum
+     */
+    synchronized void markDirtied(TransactionId tid, ArrayList<Page> pages)
+            throws DbException {
+        Set<PageId> pids = dirtiedPages.get(tid);
+        if (pids == null) {
+            pids = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            dirtiedPages.put(tid, pids);
+        }
+        PageWriter w = writer;
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            pids.add(page.getId());
+            if (w != null) {
+                w.enqueue(page.getId());
+            }
+            int frame = lookup(page.getId());
+            if (frame == -1) {
+                install(page);
+            } else if (frames.get(frame) != page) {
+                frames.set(frame, page);
+            }
+        }
+    }
+
+    /**
+     * Flush all dirty pages to disk, and save the free space maps of the
+     * tables with them.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        for (int i = 0; i < frames.length(); i++) {
+            Page page = frames.get(i);
+            if (page != null) {
+                flushPage(page.getId());
+            }
+        }
+        Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+        while (tables.hasNext()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tables.next());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).saveFreeSpaceMap();
+            }
+        }
     }
 
     /**
@@ -194,8 +1363,10 @@ public class BufferPool {
      * cache.
      */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab6                                                                            // cosc460
+        int frame = lookup(pid);
+        if (frame != -1) {
+            removeFrame(frame);
+        }
     }
 
     /**
@@ -203,26 +1374,219 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+    private void flushPage(PageId pid) throws IOException {
+        writeOut(pid, false);
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Writes a resident dirty page. The page is pinned and its bytes are
+     * taken under the pool monitor, but the log force and the write are
+     * done without it, so that getPage and evictions do not wait for the
+     * disk. The monitor is taken again afterwards to mark the page clean,
+     * unless it was changed while it was being written.
+     *
+     * @param steal true if the page is written before its transaction
+     *              ends: pinned pages are skipped rather than waited for,
+     *              and the before image is kept in case of an abort
+     * @return true if the page was dirty and has been written
+     */
+    private boolean writeOut(PageId pid, boolean steal) throws IOException {
+        Page page;
+        TransactionId dirtier;
+        Page before;
+        byte[] data;
+        synchronized (this) {
+            if (!steal) {
+                awaitWrites(Collections.singleton(pid));
+            }
+            int frame = lookup(pid);
+            // pages being written are pinned, so a steal never doubles up
+            if (frame == -1 || (steal && pinCounts[frame] > 0)) {
+                return false;
+            }
+            page = frames.get(frame);
+            dirtier = page.isDirty();
+            if (dirtier == null) {
+                return false;
+            }
+            before = page.getBeforeImage();
+            if (steal) {
+                ConcurrentHashMap<PageId, Page> stolen = stolenPages.get(dirtier);
+                if (stolen == null) {
+                    stolen = new ConcurrentHashMap<PageId, Page>();
+                    stolenPages.put(dirtier, stolen);
+                }
+                if (!stolen.containsKey(pid)) {
+                    stolen.put(pid, before);
+                }
+            }
+            data = page.getPageData();
+            pinCounts[frame]++;
+            writing.add(pid);
+        }
+        boolean written = false;
+        try {
+            // write-ahead: the update must be on disk in the log first
+            LogFile log = Database.getLogFile();
+            if (log != null) {
+                log.logWrite(dirtier, before, page);
+                log.force();
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            writeEpoch.incrementAndGet();
+            file.writePage(new PageImage(pid, data));
+            written = true;
+        } finally {
+            synchronized (this) {
+                writing.remove(pid);
+                int frame = lookup(pid);
+                if (frame != -1 && frames.get(frame) == page) {
+                    pinCounts[frame]--;
+                    if (written && dirtier.equals(page.isDirty())
+                            && Arrays.equals(data, page.getPageData())) {
+                        page.markDirty(false, null);
+                        PageWriter w = writer;
+                        if (w != null) {
+                            w.dequeue(pid);
+                        }
+                    }
+                }
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until none of the given pages is being written by writeOut.
+     */
+    private synchronized void awaitWrites(Collection<PageId> pids) throws IOException {
+        while (!Collections.disjoint(writing, pids)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a page write");
+            }
+        }
+    }
+
+    /**
+     * The bytes of a page as they were taken to be written, so that the
+     * write does not see changes made to the page meanwhile.
+     */
+    private static class PageImage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        PageImage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /**
+     * @return true if the page is resident and dirty, so a writeBack that
+     * did not happen is worth trying again
+     */
+    synchronized boolean isDirtyResident(PageId pid) {
+        int frame = lookup(pid);
+        return frame != -1 && frames.get(frame).isDirty() != null;
+    }
+
+    /**
+     * Writes a dirty page before its transaction has ended, remembering
+     * its before image in case the transaction aborts. The before image is
+     * the page as last committed, since every commit resets the before
+     * images of all the pages it touched, written early or not.
+     *
+     * @return true if the page was resident, dirty and unpinned, and has
+     * been written
+     */
+    boolean writeBack(PageId pid) throws IOException {
+        return writeOut(pid, true);
+    }
+
+    /**
+     * Write all pages of the specified transaction to disk, and force the
+     * writes to mapped files, including those of pages written early.
+     * Transaction.commit calls this before logging the commit, and there
+     * is no redo at recovery, so the pages must be durable by then.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3|lab4                                                         // cosc460
+        for (Page page : pagesDirtiedBy(tid)) {
+            flushPage(page.getId());
+        }
+        forceMappedFiles(dirtiedPages.get(tid));
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
-    private synchronized void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    private synchronized void evictPage(EvictionPolicy.Evictable scope) throws DbException {
+        int frame = policy.chooseVictim(both(scope, evictable));
+        if (frame == -1 && writer != null) {
+            // STEAL: write out a dirty page rather than fail
+            frame = policy.chooseVictim(both(scope, stealable));
+            if (frame != -1) {
+                try {
+                    writeBack(frames.get(frame).getId());
+                } catch (IOException e) {
+                    throw new DbException("could not write back page: " + e.getMessage());
+                }
+                evictionWrites.incrementAndGet();
+            }
+        }
+        if (frame == -1) {
+            throw new DbException("all pages in the buffer pool are dirty or pinned");
+        }
+        removeFrame(frame);
+    }
+
+    /**
+     * Empties a frame and returns it to the free list.
+     */
+    private synchronized void removeFrame(int frame) {
+        Page page = frames.get(frame);
+        PageWriter w = writer;
+        if (w != null) {
+            w.dequeue(page.getId());
+        }
+        if (arena != null && page instanceof HeapPage) {
+            // the frame is about to be reused; stray references to the
+            // page must not see the next page's bytes as their before image
+            ((HeapPage) page).detachFrame();
+        }
+        pageTable.remove(page.getId());
+        frames.set(frame, null);
+        pinCounts[frame] = 0;
+        policy.recordRemoval(frame);
+        freeFrames.addLast(frame);
+        int tableId = page.getId().getTableId();
+        residentPages.put(tableId, getResidentPages(tableId) - 1);
     }
 
 }
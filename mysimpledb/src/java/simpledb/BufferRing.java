@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * A BufferRing is a small, private set of BufferPool frames that one large
+ * sequential scan recycles for the pages it reads, instead of taking frames
+ * from the main pool through the eviction policy. A scan over a table far
+ * bigger than the pool thus only ever displaces its own pages, and the
+ * pool's hot pages survive it.
+ * <p/>
+ * Pages the scan finds already resident are used in place and are not
+ * added to the ring. A ring frame whose page has been pinned or dirtied
+ * since it was read is left to the main pool, and the ring takes a fresh
+ * frame instead.
+ * <p/>
+ * The ring is only manipulated under the BufferPool monitor.
+ *
+ * @see BufferPool#newScanRing(int)
+ */
+public class BufferRing {
+
+    final int[] frames;
+    final PageId[] pages;
+    int next = 0;
+
+    BufferRing(int size) {
+        frames = new int[size];
+        pages = new PageId[size];
+        for (int i = 0; i < size; i++) {
+            frames[i] = -1;
+        }
+    }
+
+    /**
+     * @return the number of frames this ring recycles
+     */
+    public int size() {
+        return frames.length;
+    }
+}
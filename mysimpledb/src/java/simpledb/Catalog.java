@@ -165,6 +165,10 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Options may follow the fields of a table: "mmap" stores the table in a
+     * memory-mapped HeapFile, "slotted" stores it in a SlottedHeapFile, and
+     * "extent=n" makes the table's file grow by n pages at a time, as in
+     * "name (field type, ...) mmap extent=128".
      *
      * @param catalogFile
      */
@@ -175,10 +179,28 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [options]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                boolean mapped = false;
+                boolean slotted = false;
+                int extentPages = HeapFile.DEFAULT_EXTENT_PAGES;
+                for (String option : options.split("\\s+")) {
+                    if (option.equals(""))
+                        continue;
+                    if (option.toLowerCase().equals("mmap"))
+                        mapped = true;
+                    else if (option.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (option.toLowerCase().startsWith("extent="))
+                        extentPages = Integer.parseInt(option.substring("extent=".length()));
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -206,14 +228,16 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf = slotted ? new SlottedHeapFile(dataFile, t, mapped) : new HeapFile(dataFile, t, mapped);
+                tabHf.setExtentPages(extentPages);
                 addTable(tabHf, name, primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)));
+                System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)) + (mapped ? " (mapped)" : "") + (slotted ? " (slotted)" : ""));
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * CLOCK (second chance) replacement. Each frame has a reference bit that is
+ * set on every hit; the clock hand sweeps the frames, clearing set bits and
+ * evicting the first evictable frame whose bit is already clear.
+ * <p/>
+ * Hits only set a bit, so they never contend on a lock.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private volatile boolean[] referenced = new boolean[0];
+    private boolean[] resident = new boolean[0];
+    private int hand = 0;
+
+    public synchronized void setNumFrames(int numFrames) {
+        boolean[] newReferenced = new boolean[numFrames];
+        boolean[] newResident = new boolean[numFrames];
+        int keep = Math.min(numFrames, resident.length);
+        System.arraycopy(referenced, 0, newReferenced, 0, keep);
+        System.arraycopy(resident, 0, newResident, 0, keep);
+        resident = newResident;
+        referenced = newReferenced;
+        if (hand >= numFrames) {
+            hand = 0;
+        }
+    }
+
+    public synchronized void recordLoad(int frame, PageId pid) {
+        resident[frame] = true;
+        referenced[frame] = true;
+    }
+
+    public void recordAccess(int frame) {
+        boolean[] ref = referenced;
+        if (frame < ref.length) {
+            ref[frame] = true;
+        }
+    }
+
+    public synchronized void recordRemoval(int frame) {
+        resident[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public synchronized int chooseVictim(Evictable evictable) {
+        int n = resident.length;
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            if (!resident[frame] || !evictable.canEvict(frame)) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
@@ -17,13 +17,27 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileHandleCache _filehandles;
 
     private final static String LOGFILENAME = "log";
+
+    /**
+     * System property giving the number of buffer pool frames to start
+     * with; the pool can be resized later with {@link BufferPool#resize}.
+     */
+    public final static String BUFFER_PAGES_PROPERTY = "simpledb.bufferpool.pages";
+
+    /**
+     * System property giving the number of data files kept open at once;
+     * see {@link FileHandleCache}.
+     */
+    public final static String OPEN_FILES_PROPERTY = "simpledb.openfiles";
     private final LogFile _logfile;
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool = new BufferPool(Integer.getInteger(BUFFER_PAGES_PROPERTY, BufferPool.DEFAULT_PAGES));
+        _filehandles = new FileHandleCache(Integer.getInteger(OPEN_FILES_PROPERTY, FileHandleCache.DEFAULT_CAPACITY));
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -56,16 +70,44 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /**
+     * Return the cache of open data files of the static Database instance
+     */
+    public static FileHandleCache getFileHandleCache() {
+        return _instance.get()._filehandles;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given eviction policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given eviction policy, keeping its frames off the Java heap
+     * if offHeap is set, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy, boolean offHeap) {
+        return resetBufferPool(new BufferPool(pages, policy, offHeap));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF = null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -81,7 +123,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        // files still in use are closed when their users are done
+        _instance.getAndSet(new Database())._filehandles.shutdown();
     }
 
 }
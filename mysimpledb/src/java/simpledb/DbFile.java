@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.io.*;
 
 /**
@@ -19,6 +20,33 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified pages from disk, with as few reads as possible.
+     * Files that cannot batch reads read the pages one at a time.
+     *
+     * @param ids the pages to read, in any order
+     * @return the pages, in the order of ids
+     * @throws IOException if a read fails
+     */
+    public default List<Page> readPages(List<PageId> ids) throws IOException {
+        ArrayList<Page> pages = new ArrayList<Page>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
+    /**
+     * Read the specified page from disk without waiting for the read. Files
+     * that cannot read asynchronously read the page right away.
+     *
+     * @return a future that completes with the page, or exceptionally if
+     * the read fails
+     */
+    public default CompletableFuture<Page> readPageAsync(PageId id) {
+        return CompletableFuture.completedFuture(readPage(id));
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -58,6 +86,44 @@ public interface DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Removes the tuples with the specified RecordIds from the file on
+     * behalf of the specified transaction. The RecordIds should be sorted by
+     * page, so that files that can delete a page's tuples together fetch
+     * and lock each page once. By default the tuples are deleted one at a
+     * time. If a delete fails, the pages changed so far are marked dirtied
+     * by tid before the failure is thrown, so that aborting tid undoes them.
+     *
+     * @param tid  The transaction performing the update
+     * @param rids The RecordIds of the tuples to delete
+     * @return An ArrayList contain the pages that were modified, each once
+     * @throws DbException if a tuple cannot be deleted or is not a member
+     *                     of the file
+     */
+    public default ArrayList<Page> deleteTuples(TransactionId tid, List<RecordId> rids)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        Set<PageId> seen = new HashSet<PageId>();
+        boolean done = false;
+        try {
+            for (RecordId rid : rids) {
+                Tuple t = new Tuple(getTupleDesc());
+                t.setRecordId(rid);
+                for (Page p : deleteTuple(tid, t)) {
+                    if (seen.add(p.getId())) {
+                        pages.add(p);
+                    }
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                Database.getBufferPool().markDirtied(tid, pages);
+            }
+        }
+        return pages;
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -1,15 +1,43 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
  * them from the table they belong to.
+ * <p/>
+ * The RecordIds of all the child's tuples are read first and sorted by
+ * page, and each table's are then deleted as one batch, so every page is
+ * fetched, locked and dirtied once however many of its tuples go.
+ *
+ * @see BufferPool#deleteTuples
  */
 public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Comparator<RecordId> BY_PAGE = new Comparator<RecordId>() {
+        public int compare(RecordId a, RecordId b) {
+            PageId pa = a.getPageId();
+            PageId pb = b.getPageId();
+            if (pa.getTableId() != pb.getTableId()) {
+                return pa.getTableId() < pb.getTableId() ? -1 : 1;
+            }
+            if (pa.pageNumber() != pb.pageNumber()) {
+                return pa.pageNumber() < pb.pageNumber() ? -1 : 1;
+            }
+            return a.tupleno() < b.tupleno() ? -1 : (a.tupleno() == b.tupleno() ? 0 : 1);
+        }
+    };
+
+    private final TransactionId tid;
+    private DbIterator child;
+    private final TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE});
+    private boolean done = false;
+
     /**
      * Constructor specifying the transaction that this delete belongs to as
      * well as the child to read from.
@@ -18,24 +46,28 @@ public class Delete extends Operator {
      * @param child The child operator from which to read tuples for deletion
      */
     public Delete(TransactionId t, DbIterator child) {
-        // some code goes here
+        this.tid = t;
+        this.child = child;
     }
 
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        // some code goes here
+        child.open();
+        super.open();
+        done = false;
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        child.rewind();
+        done = false;
     }
 
     /**
@@ -48,19 +80,48 @@ public class Delete extends Operator {
      * @see BufferPool#deleteTuple
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        if (done) {
+            return null;
+        }
+        done = true;
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        while (child.hasNext()) {
+            rids.add(child.next().getRecordId());
+        }
+        Collections.sort(rids, BY_PAGE);
+
+        BufferPool bp = Database.getBufferPool();
+        try {
+            int i = 0;
+            while (i < rids.size()) {
+                // rids[i, j) are of the same table
+                int tableId = rids.get(i).getPageId().getTableId();
+                int j = i + 1;
+                while (j < rids.size() && rids.get(j).getPageId().getTableId() == tableId) {
+                    j++;
+                }
+                bp.deleteTuples(tid, tableId, rids.subList(i, j));
+                i = j;
+            }
+        } catch (IOException e) {
+            throw new DbException("delete failed: " + e.getMessage());
+        }
+
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(rids.size()));
+        return result;
     }
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[]{this.child};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        if (this.child != children[0]) {
+            this.child = children[0];
+        }
     }
 
 }
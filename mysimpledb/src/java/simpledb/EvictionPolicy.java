@@ -0,0 +1,55 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which frame of the BufferPool gives up its page
+ * when a new page has to be brought in. The BufferPool reports every load,
+ * hit and removal of a frame, and asks the policy for a victim when it runs
+ * out of free frames.
+ * <p/>
+ * Policies only rank frames; whether a frame may actually be evicted (it is
+ * not pinned, and not dirty under NO STEAL) is decided by the BufferPool and
+ * passed in through {@link Evictable}. Frame numbers range over
+ * [0, numFrames).
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Tells the BufferPool whether a frame may be evicted right now.
+     */
+    public interface Evictable {
+        public boolean canEvict(int frame);
+    }
+
+    /**
+     * Sizes the policy for a pool of numFrames frames. Called by the
+     * BufferPool before any other method.
+     */
+    public void setNumFrames(int numFrames);
+
+    /**
+     * Records that the page pid was just read into the given (empty) frame.
+     */
+    public void recordLoad(int frame, PageId pid);
+
+    /**
+     * Records a hit on a resident frame. May be called concurrently with
+     * the other methods.
+     */
+    public void recordAccess(int frame);
+
+    /**
+     * Records that the given frame was emptied, either by eviction or
+     * because its page was discarded.
+     */
+    public void recordRemoval(int frame);
+
+    /**
+     * Picks the frame to evict.
+     *
+     * @param evictable which frames may be evicted
+     * @return the victim frame, or -1 if no frame can be evicted
+     */
+    public int chooseVictim(Evictable evictable);
+}
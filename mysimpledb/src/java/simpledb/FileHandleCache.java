@@ -0,0 +1,325 @@
+package simpledb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * FileHandleCache keeps a bounded number of files open for all the
+ * HeapFiles of the database, so that a database with many tables uses a
+ * predictable number of file descriptors while reads of a table that is in
+ * use do not pay for an open() each.
+ * <p/>
+ * A file is used through a {@link Handle}, which is taken with
+ * {@link #open(File)} and must be closed when the caller is done with the
+ * channel, typically in a try-with-resources block. A channel is only
+ * closed while no handle on it is outstanding: when more than capacity
+ * files are open, the least recently opened idle ones are closed. Files
+ * in use are never closed under their users, so the cache can exceed its
+ * capacity for as long as more files than that are in use at once.
+ * <p/>
+ * A file is opened read-only until a handle for writing is asked for, so
+ * that reading a table neither needs write permission on its file nor
+ * creates the file if it is missing. A file opened for writing is created
+ * if it does not exist. When a file open for reading is first written, it
+ * is opened again for reading and writing; the read-only channel is closed
+ * once no handle on the file is left.
+ * <p/>
+ * A handle also gives access to an asynchronous channel for reading the
+ * file, opened on first use. It belongs to the file's entry like the
+ * other channel, and is closed with it, so an asynchronous read must keep
+ * its handle until the read completes.
+ *
+ * @Threadsafe
+ */
+public class FileHandleCache {
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * An open channel and the number of handles on it.
+     */
+    private static class Entry {
+        final File file;
+        // guarded by this entry
+        FileChannel channel = null;
+        boolean writable = false;
+        // channels replaced by a writable one, still in use by handles
+        final ArrayList<FileChannel> retired = new ArrayList<FileChannel>();
+        // for asynchronous reads, opened on demand; guarded by this entry
+        AsynchronousFileChannel async = null;
+        // guarded by the cache
+        int refs = 0;
+
+        Entry(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * A reference to the open channel of a file. Closing the handle gives
+     * the reference back; the channel itself stays open in the cache.
+     */
+    public class Handle implements Closeable {
+        private final Entry entry;
+        private final FileChannel channel;
+        private boolean released = false;
+
+        private Handle(Entry entry, FileChannel channel) {
+            this.entry = entry;
+            this.channel = channel;
+        }
+
+        /**
+         * @return the channel of the file, open for reading, and for
+         * writing if the handle was taken for writing
+         */
+        public FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * @return the channel asynchronous reads of the file go through,
+         * opened on first use. It stays open at least until this handle
+         * is closed.
+         */
+        public AsynchronousFileChannel asyncChannel() throws IOException {
+            synchronized (entry) {
+                if (entry.async == null || !entry.async.isOpen()) {
+                    entry.async = AsynchronousFileChannel.open(entry.file.toPath(), StandardOpenOption.READ);
+                }
+                return entry.async;
+            }
+        }
+
+        public void close() {
+            if (!released) {
+                released = true;
+                release(entry);
+            }
+        }
+    }
+
+    // in order of last use, least recent first; guarded by this
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+    private int capacity;
+    private long opens = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Creates a cache that keeps at most capacity idle files open.
+     */
+    public FileHandleCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Sets the number of files the cache keeps open, closing idle files
+     * at once if there are more.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("the cache must hold at least one file");
+        }
+        this.capacity = capacity;
+        evictIdle();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of files open at the moment
+     */
+    public synchronized int getOpenCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of times a file was opened because it was not in
+     * the cache
+     */
+    public synchronized long getOpenCalls() {
+        return opens;
+    }
+
+    /**
+     * Returns a handle for reading f, opening the file if it is not open
+     * already.
+     *
+     * @throws java.io.FileNotFoundException if f does not exist
+     */
+    public Handle open(File f) throws IOException {
+        return open(f, false);
+    }
+
+    /**
+     * Returns a handle on the open channel of f, opening the file if it is
+     * not open already, or not open for writing and write is set.
+     *
+     * @param write whether the channel is to be written; a file opened for
+     *              writing is created if it does not exist
+     * @throws java.io.FileNotFoundException if f does not exist and write
+     *                                       is not set
+     */
+    public Handle open(File f, boolean write) throws IOException {
+        File key = f.getAbsoluteFile();
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+            if (e == null) {
+                e = new Entry(key);
+                entries.put(key, e);
+            }
+            e.refs++;
+        }
+        // open outside the cache monitor, so a slow open only holds up the
+        // users of this file; an entry with handles is never evicted
+        FileChannel ch;
+        boolean opened = false;
+        try {
+            synchronized (e) {
+                if (e.channel == null || !e.channel.isOpen()) {
+                    // never opened, or closed by an interrupted thread
+                    e.channel = new RandomAccessFile(key, write ? "rw" : "r").getChannel();
+                    e.writable = write;
+                    opened = true;
+                } else if (write && !e.writable) {
+                    // readers may still be using the read-only channel
+                    FileChannel rw = new RandomAccessFile(key, "rw").getChannel();
+                    e.retired.add(e.channel);
+                    e.channel = rw;
+                    e.writable = true;
+                    opened = true;
+                }
+                ch = e.channel;
+            }
+        } catch (IOException ex) {
+            // a file that could not be opened is not kept
+            synchronized (this) {
+                e.refs--;
+                if (e.refs == 0 && entries.get(key) == e) {
+                    entries.remove(key);
+                    closeChannel(e);
+                }
+            }
+            throw ex;
+        }
+        synchronized (this) {
+            if (opened) {
+                opens++;
+            }
+            evictIdle();
+        }
+        return new Handle(e, ch);
+    }
+
+    private synchronized void release(Entry e) {
+        e.refs--;
+        if (e.refs == 0 && (shutdown || entries.get(e.file) != e)) {
+            // the cache was shut down, or the file closed, while in use
+            entries.remove(e.file);
+            closeChannel(e);
+        } else {
+            if (e.refs == 0) {
+                closeRetired(e);
+            }
+            evictIdle();
+        }
+    }
+
+    /**
+     * Closes the least recently used idle files until at most capacity
+     * files are open, or only files in use are left.
+     */
+    private void evictIdle() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry e = it.next();
+            if (e.refs == 0) {
+                it.remove();
+                closeChannel(e);
+            }
+        }
+    }
+
+    /**
+     * Closes f if it is open and not in use; if it is in use, it is closed
+     * once the last handle on it is closed.
+     */
+    public synchronized void close(File f) {
+        File key = f.getAbsoluteFile();
+        Entry e = entries.get(key);
+        if (e == null) {
+            return;
+        }
+        entries.remove(key);
+        if (e.refs == 0) {
+            closeChannel(e);
+        }
+    }
+
+    /**
+     * Closes every idle file, and every file in use once its last handle
+     * is closed. The cache must not be used afterwards.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.refs == 0) {
+                it.remove();
+                closeChannel(e);
+            }
+        }
+    }
+
+    private static void closeChannel(Entry e) {
+        synchronized (e) {
+            if (e.channel != null) {
+                try {
+                    e.channel.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                e.channel = null;
+                e.writable = false;
+            }
+            if (e.async != null) {
+                try {
+                    e.async.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                e.async = null;
+            }
+        }
+        closeRetired(e);
+    }
+
+    /**
+     * Closes the read-only channels of e that a writable one replaced; no
+     * handle on e may be outstanding.
+     */
+    private static void closeRetired(Entry e) {
+        synchronized (e) {
+            for (FileChannel ch : e.retired) {
+                try {
+                    ch.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            e.retired.clear();
+        }
+    }
+}
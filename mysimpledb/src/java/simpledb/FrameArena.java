@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FrameArena is a preallocated region of direct (off-heap) memory, carved
+ * into fixed-size frames of one page each. Frames are handed out as views
+ * over the arena, so the bytes of cached pages never live on the Java heap
+ * and never have to be scanned or copied by the garbage collector.
+ * <p/>
+ * A single direct buffer cannot exceed 2 GiB, so the arena is allocated
+ * as a list of chunks of at most {@link #DEFAULT_CHUNK_BYTES} bytes each,
+ * every chunk holding a whole number of frames. Frame i lives in chunk
+ * i / framesPerChunk, at offset (i % framesPerChunk) * frameSize.
+ * <p/>
+ * The arena does not track which frames are in use; the BufferPool owns
+ * that, using the same frame numbers for the arena as for its page table.
+ *
+ * @Threadsafe, views are independent of each other
+ * @see BufferPool#BufferPool(int, EvictionPolicy, boolean)
+ */
+public class FrameArena {
+
+    /**
+     * Largest number of bytes allocated in one direct buffer.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 30;
+
+    private final List<ByteBuffer> chunks;
+    private final ByteBuffer[] frames;
+    private final int frameSize;
+    private final int framesPerChunk;
+
+    /**
+     * Allocates an arena of numFrames * frameSize bytes.
+     *
+     * @param numFrames number of frames
+     * @param frameSize bytes per frame, normally {@link BufferPool#getPageSize()}
+     * @throws IllegalArgumentException if numFrames is negative or
+     *                                  frameSize is not positive
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this(numFrames, frameSize, Math.max(1, DEFAULT_CHUNK_BYTES / Math.max(1, frameSize)));
+    }
+
+    /**
+     * Allocates an arena of numFrames * frameSize bytes, in chunks of
+     * framesPerChunk frames.
+     */
+    FrameArena(int numFrames, int frameSize, int framesPerChunk) {
+        if (numFrames < 0) {
+            throw new IllegalArgumentException("negative number of frames: " + numFrames);
+        }
+        if (frameSize < 1) {
+            throw new IllegalArgumentException("frame size must be positive: " + frameSize);
+        }
+        if (framesPerChunk < 1 || (long) framesPerChunk * frameSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("chunks of " + framesPerChunk + " frames of "
+                    + frameSize + " bytes do not fit in a direct buffer");
+        }
+        this.frameSize = frameSize;
+        this.framesPerChunk = framesPerChunk;
+        int numChunks = (int) (((long) numFrames + framesPerChunk - 1) / framesPerChunk);
+        this.chunks = new ArrayList<ByteBuffer>(numChunks);
+        for (int c = 0; c < numChunks; c++) {
+            int inChunk = Math.min(framesPerChunk, numFrames - c * framesPerChunk);
+            chunks.add(ByteBuffer.allocateDirect(inChunk * frameSize));
+        }
+        this.frames = new ByteBuffer[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            ByteBuffer view = chunks.get(i / framesPerChunk).duplicate();
+            int offset = (i % framesPerChunk) * frameSize;
+            view.limit(offset + frameSize);
+            view.position(offset);
+            frames[i] = view.slice();
+        }
+    }
+
+    /**
+     * @return a view of the given frame, positioned at its start. Each call
+     * returns a new view, so callers may move its position freely.
+     */
+    public ByteBuffer frame(int frame) {
+        return frames[frame].duplicate();
+    }
+
+    /**
+     * @return the number of frames in this arena
+     */
+    public int numFrames() {
+        return frames.length;
+    }
+
+    /**
+     * @return the size of each frame in bytes
+     */
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the total size of the arena in bytes
+     */
+    public long capacity() {
+        return (long) frames.length * frameSize;
+    }
+
+    /**
+     * @return the number of direct buffers the arena is allocated in
+     */
+    int numChunks() {
+        return chunks.size();
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records, one bit per page, which pages of a HeapFile have at
+ * least one empty slot, or for a SlottedHeapFile room for one more tuple of
+ * the smallest size, so that an insert can go straight to such a page
+ * instead of searching the file for one.
+ * <p/>
+ * The map is kept up to date by the pages of the file as tuples are inserted and
+ * deleted, and is saved to a side file next to the table when the HeapFile
+ * is closed and whenever the buffer pool flushes all its pages, as at a
+ * checkpoint. It is a hint, not part of the table: a page the map wrongly
+ * believes to have room is found full when the insert gets to it, and is
+ * then marked full; a slotted page that only lacks room for the tuple at
+ * hand is passed over but stays marked. A map whose side file is missing or does not match the
+ * number of pages in the table starts out believing every page has room.
+ * The pages an aborted transaction dirtied are believed to have room
+ * again, since the inserts that may have filled them were undone.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    // bit i is set if page i may have room; guarded by this
+    private final BitSet hasRoom = new BitSet();
+    private int numPages;
+    private boolean dirty = false;
+
+    /**
+     * Loads the map saved in file, or starts a new one if the file does not
+     * hold a map for a table of numPages pages.
+     *
+     * @param file     the side file the map is saved in
+     * @param numPages the number of pages in the table
+     */
+    public FreeSpaceMap(File file, int numPages) {
+        this.file = file;
+        this.numPages = numPages;
+        if (!load()) {
+            hasRoom.set(0, numPages);
+        }
+    }
+
+    /**
+     * @return the side file holding the map of the given table file
+     */
+    public static File sideFileFor(File tableFile) {
+        return new File(tableFile.getPath() + ".fsm");
+    }
+
+    private boolean load() {
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != numPages) {
+                    return false;
+                }
+                byte[] bits = new byte[(numPages + 7) / 8];
+                in.readFully(bits);
+                for (int i = 0; i < numPages; i++) {
+                    if ((bits[i / 8] & (1 << (i % 8))) != 0) {
+                        hasRoom.set(i);
+                    }
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // a damaged map is rebuilt as inserts go
+            hasRoom.clear();
+            return false;
+        }
+    }
+
+    /**
+     * @return the lowest numbered page that may have room, or -1 if the map
+     * knows of none
+     */
+    public synchronized int pageWithRoom() {
+        return hasRoom.nextSetBit(0);
+    }
+
+    /**
+     * @return the lowest numbered page from pgno on that may have room, or
+     * -1 if the map knows of none
+     */
+    public synchronized int pageWithRoom(int pgno) {
+        return hasRoom.nextSetBit(pgno);
+    }
+
+    /**
+     * @return true if page pgno may have room
+     */
+    public synchronized boolean hasRoom(int pgno) {
+        return hasRoom.get(pgno);
+    }
+
+    /**
+     * Records whether page pgno has room; a page past the end of the map
+     * extends it.
+     */
+    public synchronized void setHasRoom(int pgno, boolean room) {
+        if (hasRoom.get(pgno) != room) {
+            hasRoom.set(pgno, room);
+            dirty = true;
+        }
+        if (pgno >= numPages) {
+            numPages = pgno + 1;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Forgets the pages from pgno on, after the table was cut short.
+     */
+    public synchronized void truncate(int pgno) {
+        if (pgno < numPages) {
+            hasRoom.clear(pgno, numPages);
+            numPages = pgno;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the map to its side file, if it changed since it was loaded or
+     * last saved.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            byte[] bits = new byte[(numPages + 7) / 8];
+            for (int i = hasRoom.nextSetBit(0); i >= 0; i = hasRoom.nextSetBit(i + 1)) {
+                bits[i / 8] |= 1 << (i % 8);
+            }
+            out.writeInt(numPages);
+            out.write(bits);
+        } finally {
+            out.close();
+        }
+        dirty = false;
+    }
+}
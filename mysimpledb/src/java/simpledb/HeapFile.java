@@ -1,7 +1,14 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -10,11 +17,32 @@ import java.util.*;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  *
+ * <p/>
+ * A HeapFile may instead be memory-mapped, in segments of
+ * {@link #SEGMENT_PAGES} pages. A mapped file hands out pages built over
+ * read-only slices of its mapping, so the page bytes are never copied into
+ * the BufferPool and the operating system's page cache does the buffering;
+ * this suits tables that are mostly read. Writes go into the mapping, or
+ * extend the file through its channel when they land past its end, and
+ * reach the disk when {@link #force()} is called at commit.
+ * <p/>
+ * Inserts that run out of room grow the file by a whole extent of
+ * {@link #getExtentPages()} zeroed pages at a time, which read as empty
+ * pages, and hand the pages of the extent out one by one. Pages of the
+ * extent not handed out yet do not count towards {@link #numPages()}, and
+ * are cut off again when the file is closed.
+ *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
  */
 public class HeapFile implements DbFile {
 
+    public static final int SEGMENT_PAGES = 256;
+    public static final int DEFAULT_EXTENT_PAGES = 64;
+
+    // one page-sized buffer per thread for writePage
+    private static final ThreadLocal<ByteBuffer> writeBuffers = new ThreadLocal<ByteBuffer>();
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -24,10 +52,62 @@ public class HeapFile implements DbFile {
 	
 	private File f = null;
 	private TupleDesc tdsc = null;
+	// number of pages, computed from the file length on first use and
+	// raised whenever a write extends the file; -1 until computed
+	private final AtomicInteger numPages = new AtomicInteger(-1);
+	private final boolean mapped;
+	// segment i maps pages [i * SEGMENT_PAGES, (i + 1) * SEGMENT_PAGES), or
+	// as many of them as the file held when it was mapped; guarded by this
+	private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	// segments written since the last force; guarded by this
+	private final BitSet unforcedSegments = new BitSet();
+	// whether the file was extended through the channel since the last force
+	private boolean unforcedChannel = false;
+	// loaded on first use; guarded by this
+	private FreeSpaceMap freeSpaceMap = null;
+	private volatile int extentPages = DEFAULT_EXTENT_PAGES;
+	// pages the file has room for, including those of the current extent
+	// not handed out yet; -1 until the first append; guarded by this
+	private int allocatedPages = -1;
 	
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param mapped whether to memory-map the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
         this.f = f;
         this.tdsc = td;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Sets the number of pages the file grows by when an insert needs a new
+     * page.
+     */
+    public void setExtentPages(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("extents must have at least one page");
+        }
+        extentPages = pages;
+    }
+
+    /**
+     * @return the number of pages the file grows by at a time
+     */
+    public int getExtentPages() {
+        return extentPages;
+    }
+
+    /**
+     * @return true if this file is memory-mapped
+     */
+    public boolean isMapped() {
+        return mapped;
     }
 
     /**
@@ -61,51 +141,585 @@ public class HeapFile implements DbFile {
         return this.tdsc;
     }
 
+    /**
+     * Returns a handle on the channel reads and writes of this file go
+     * through, which must be closed after use. The channel is kept open in
+     * the database's FileHandleCache, and positional reads and writes on it
+     * may run concurrently, so one channel serves every thread.
+     *
+     * @param write whether the channel is written; the file is only
+     *              opened for writing, and created, when it is
+     */
+    private FileHandleCache.Handle handle(boolean write) throws IOException {
+        return Database.getFileHandleCache().open(f, write);
+    }
+
+    /**
+     * Closes the channels of this file. They are reopened if the file is
+     * used again.
+     */
+    public synchronized void close() throws IOException {
+        if (allocatedPages == -1 && numPages.get() >= 0) {
+            // the tail left out by numPages after a restart
+            allocatedPages = (int) (f.length() / BufferPool.getPageSize());
+        }
+        if (allocatedPages > numPages()) {
+            // give back the rest of the current extent
+            try (FileHandleCache.Handle h = handle(true)) {
+                h.channel().truncate((long) numPages() * BufferPool.getPageSize());
+            }
+            allocatedPages = numPages();
+        }
+        force();
+        saveFreeSpaceMap();
+        segments.clear();
+        Database.getFileHandleCache().close(f);
+    }
+
+    /**
+     * Opens this file for reading, or returns null if it was not created
+     * yet. The file is only looked up when the open fails, so reads of a
+     * file that exists cost no more than the read.
+     */
+    private FileHandleCache.Handle readHandle() throws IOException {
+        try {
+            return handle(false);
+        } catch (FileNotFoundException e) {
+            if (f.exists()) {
+                // there, but not readable
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the page starting at offset into dst with positional reads,
+     * filling whatever lies past the end of the file with zeroes. A file
+     * that was not created yet reads as all zeroes.
+     */
+    private void readFully(ByteBuffer dst, long offset) throws IOException {
+        int start = dst.position();
+        try (FileHandleCache.Handle h = readHandle()) {
+            if (h != null) {
+                FileChannel ch = h.channel();
+                while (dst.hasRemaining()) {
+                    if (ch.read(dst, offset + dst.position() - start) < 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        while (dst.hasRemaining()) {
+            dst.put((byte) 0);
+        }
+    }
+
+    /**
+     * Returns a view of page pgno in this file's mapping, mapping or
+     * remapping its segment if needed, or null if the page lies past the
+     * end of the file.
+     */
+    private synchronized ByteBuffer mappedPage(int pgno) throws IOException {
+        if (pgno >= numPages()) {
+            return null;
+        }
+        int pageSize = BufferPool.getPageSize();
+        int seg = pgno / SEGMENT_PAGES;
+        int offset = (pgno % SEGMENT_PAGES) * pageSize;
+        while (segments.size() <= seg) {
+            segments.add(null);
+        }
+        MappedByteBuffer segment = segments.get(seg);
+        if (segment == null || segment.capacity() < offset + pageSize) {
+            // the file grew since the segment was mapped; pages already
+            // handed out keep their view of the old mapping
+            // the mapping stays valid after the channel is closed
+            int pages = Math.min(SEGMENT_PAGES, numPages() - seg * SEGMENT_PAGES);
+            try (FileHandleCache.Handle h = handle(true)) {
+                segment = h.channel().map(FileChannel.MapMode.READ_WRITE,
+                        (long) seg * SEGMENT_PAGES * pageSize, (long) pages * pageSize);
+            }
+            segments.set(seg, segment);
+        }
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + pageSize);
+        return view.slice();
+    }
+
+    /**
+     * Writes every change made through the mapping of this file, and every
+     * extension of it, to the disk. Does nothing for a file that is not
+     * mapped, since its writes already went to the channel.
+     */
+    public synchronized void force() throws IOException {
+        for (int i = unforcedSegments.nextSetBit(0); i >= 0; i = unforcedSegments.nextSetBit(i + 1)) {
+            segments.get(i).force();
+        }
+        unforcedSegments.clear();
+        if (unforcedChannel) {
+            // forcing any channel of the file forces all its writes
+            try (FileHandleCache.Handle h = handle(true)) {
+                h.channel().force(false);
+            }
+            unforcedChannel = false;
+        }
+    }
+
+    /**
+     * @return true if writes through the mapping, or extensions of the
+     * file, have not been forced yet
+     */
+    synchronized boolean hasUnforcedWrites() {
+        return !unforcedSegments.isEmpty() || unforcedChannel;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
 
         try{
-        	InputStream input = new FileInputStream(getFile());
-        	int pgno = pid.pageNumber();
-        	input.skip(BufferPool.PAGE_SIZE * pgno);
-        	byte[] buffer = new byte[BufferPool.PAGE_SIZE];
-        	input.read(buffer, 0, BufferPool.PAGE_SIZE);
-        	input.close();
-        	return new HeapPage((HeapPageId)pid, buffer);
-        } catch (FileNotFoundException e) {System.err.println(e.getMessage());} catch (IOException e) {System.err.println(e.getMessage());}
+        	if (mapped) {
+        		ByteBuffer view = mappedPage(pid.pageNumber());
+        		if (view != null) {
+        			return newPage((HeapPageId) pid, view.asReadOnlyBuffer());
+        		}
+        	}
+        	int pageSize = BufferPool.getPageSize();
+        	byte[] buffer = new byte[pageSize];
+        	readFully(ByteBuffer.wrap(buffer), (long) pageSize * pid.pageNumber());
+        	return newPage((HeapPageId) pid, buffer);
+        } catch (IOException e) {System.err.println(e.getMessage());}
         return null;
     }
 
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> pids) throws IOException {
+        if (mapped) {
+            // slices of the mapping cost no read at all
+            ArrayList<Page> pages = new ArrayList<Page>(pids.size());
+            for (PageId pid : pids) {
+                pages.add(readPage(pid));
+            }
+            return pages;
+        }
+        final int[] pgnos = new int[pids.size()];
+        Integer[] order = new Integer[pgnos.length];
+        for (int i = 0; i < pgnos.length; i++) {
+            pgnos[i] = pids.get(i).pageNumber();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return pgnos[a] < pgnos[b] ? -1 : (pgnos[a] == pgnos[b] ? 0 : 1);
+            }
+        });
+        int pageSize = BufferPool.getPageSize();
+        byte[][] data = new byte[pgnos.length][];
+        int i = 0;
+        while (i < order.length) {
+            // pages i to j - 1 in sorted order are adjacent in the file
+            int j = i + 1;
+            while (j < order.length && pgnos[order[j]] == pgnos[order[j - 1]] + 1) {
+                j++;
+            }
+            ByteBuffer[] run = new ByteBuffer[j - i];
+            for (int k = i; k < j; k++) {
+                data[order[k]] = new byte[pageSize];
+                run[k - i] = ByteBuffer.wrap(data[order[k]]);
+            }
+            if (run.length == 1) {
+                readFully(run[0], (long) pageSize * pgnos[order[i]]);
+            } else {
+                scatterRead(run, (long) pageSize * pgnos[order[i]]);
+            }
+            i = j;
+        }
+        ArrayList<Page> pages = new ArrayList<Page>(pgnos.length);
+        for (int k = 0; k < pgnos.length; k++) {
+            pages.add(newPage((HeapPageId) pids.get(k), data[k]));
+        }
+        return pages;
+    }
+
+    /**
+     * Reads consecutive pages starting at offset into dsts with a single
+     * scattering read. Pages past the end of the file are left as they
+     * are, which for fresh buffers means all zeroes.
+     */
+    private void scatterRead(ByteBuffer[] dsts, long offset) throws IOException {
+        try (FileHandleCache.Handle h = readHandle()) {
+            if (h == null) {
+                return;
+            }
+            FileChannel ch = h.channel();
+            // the position is only used here, under the channel's monitor;
+            // every other read and write is positional
+            synchronized (ch) {
+                ch.position(offset);
+                ByteBuffer last = dsts[dsts.length - 1];
+                while (last.hasRemaining()) {
+                    if (ch.read(dsts) < 0) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public CompletableFuture<Page> readPageAsync(final PageId pid) {
+        final CompletableFuture<Page> result = new CompletableFuture<Page>();
+        if (mapped) {
+            // a slice of the mapping is there already
+            result.complete(readPage(pid));
+            return result;
+        }
+        final byte[] data = new byte[BufferPool.getPageSize()];
+        final long offset = (long) data.length * pid.pageNumber();
+        // the handle keeps the channel open until the read is done
+        final FileHandleCache.Handle h;
+        final AsynchronousFileChannel ch;
+        try {
+            h = readHandle();
+            if (h == null) {
+                // not created yet, so the page reads as zeroes
+                result.complete(newPage((HeapPageId) pid, data));
+                return result;
+            }
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        try {
+            ch = h.asyncChannel();
+        } catch (IOException e) {
+            h.close();
+            result.completeExceptionally(e);
+            return result;
+        }
+        ByteBuffer dst = ByteBuffer.wrap(data);
+        ch.read(dst, offset, dst, new CompletionHandler<Integer, ByteBuffer>() {
+            public void completed(Integer n, ByteBuffer buf) {
+                if (n >= 0 && buf.hasRemaining()) {
+                    ch.read(buf, offset + buf.position(), buf, this);
+                    return;
+                }
+                h.close();
+                // past the end of the file the page reads as zeroes, as
+                // with readPage
+                try {
+                    result.complete(newPage((HeapPageId) pid, data));
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            public void failed(Throwable e, ByteBuffer buf) {
+                h.close();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads the page with the given id into a BufferPool frame and returns
+     * a page over that frame, without copying the page onto the heap.
+     * Bytes past the end of the file read as zeroes.
+     *
+     * @param frame a view of one page, positioned at its start
+     * @see FrameArena
+     */
+    public TuplePage readPageInto(PageId pid, ByteBuffer frame) throws IOException {
+        readFully(frame.duplicate(), (long) BufferPool.getPageSize() * pid.pageNumber());
+        return newPage((HeapPageId) pid, frame);
+    }
+
+    /**
+     * Creates a page of this file from the given page bytes, which the
+     * page may keep.
+     */
+    TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Creates a page of this file over the given page-sized view, which
+     * the page may keep without copying.
+     */
+    TuplePage newPage(HeapPageId pid, ByteBuffer frame) throws IOException {
+        return new HeapPage(pid, frame);
+    }
+
+    /**
+     * Tells the free space map of the file of the given page, if it has
+     * one, whether the page has room.
+     */
+    static void noteFreeSpace(HeapPageId pid, boolean room) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).freeSpaceMap().setHasRoom(pid.pageNumber(), room);
+        }
+    }
+
+    /**
+     * Reads up to count consecutive pages starting at firstPgno with a
+     * single read, stopping at the end of the file.
+     *
+     * @return the raw data of the pages read, a multiple of the page size
+     * @see BufferPool#prefetch
+     */
+    public byte[] readPageRange(int firstPgno, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long available = numPages() - firstPgno;
+        int n = (int) Math.max(0, Math.min(count, available));
+        byte[] data = new byte[n * pageSize];
+        readFully(ByteBuffer.wrap(data), (long) firstPgno * pageSize);
+        return data;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        int pgno = page.getId().pageNumber();
+        if (mapped) {
+            synchronized (this) {
+                ByteBuffer view = mappedPage(pgno);
+                if (view != null) {
+                    page.writePageData(view);
+                    unforcedSegments.set(pgno / SEGMENT_PAGES);
+                    return;
+                }
+                unforcedChannel = true;
+            }
+        }
+        ByteBuffer src = writeBuffer();
+        page.writePageData(src);
+        src.flip();
+        long offset = (long) BufferPool.getPageSize() * pgno;
+        try (FileHandleCache.Handle h = handle(true)) {
+            FileChannel ch = h.channel();
+            while (src.hasRemaining()) {
+                ch.write(src, offset + src.position());
+            }
+        }
+        extendTo(pgno + 1);
+    }
+
+    /**
+     * @return this thread's buffer for pages on their way to disk, cleared
+     */
+    private static ByteBuffer writeBuffer() {
+        ByteBuffer buf = writeBuffers.get();
+        if (buf == null || buf.capacity() != BufferPool.getPageSize()) {
+            // direct, so the channel does not copy it once more
+            buf = ByteBuffer.allocateDirect(BufferPool.getPageSize());
+            writeBuffers.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Raises the cached page count to at least pages.
+     */
+    private void extendTo(int pages) {
+        numPages();
+        while (true) {
+            int current = numPages.get();
+            if (current >= pages || numPages.compareAndSet(current, pages)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cuts this file short to its first pages pages, dropping the rest
+     * from the BufferPool. The caller must hold write locks on the pages
+     * cut off, and they must be empty.
+     * <p/>
+     * The BufferPool monitor is taken before this file's, the order in
+     * which the pool's reads and writes of mapped pages take them.
+     *
+     * @see Vacuum
+     */
+    public void truncate(int pages) throws IOException {
+        BufferPool bp = Database.getBufferPool();
+        synchronized (bp) {
+            synchronized (this) {
+                int old = numPages();
+                if (pages >= old) {
+                    return;
+                }
+                for (int pgno = pages; pgno < old; pgno++) {
+                    bp.discardPage(new HeapPageId(getId(), pgno));
+                }
+                force();
+                // pages handed out from here on come from the mapping of
+                // the new tail, so old segments must not be used again
+                segments.clear();
+                unforcedSegments.clear();
+                try (FileHandleCache.Handle h = handle(true)) {
+                    h.channel().truncate((long) pages * BufferPool.getPageSize());
+                }
+                numPages.set(pages);
+                allocatedPages = pages;
+                freeSpaceMap().truncate(pages);
+            }
+        }
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-    	try{
-    		InputStream input = new FileInputStream(getFile());
-    		int data = input.read();
-    		int count = 1;
-    		while(data != -1){
-    			data = input.read();
-    			count++;
+    	int n = numPages.get();
+    	if (n < 0) {
+    		numPages.compareAndSet(-1, pagesInUse());
+    		n = numPages.get();
+    	}
+    	return n;
+    }
+
+    /**
+     * Counts the pages of the file from its length, leaving out the pages
+     * of zeroes at its end, up to an extent less one: after a restart, the
+     * part of the last extent that was never handed out. A page of zeroes
+     * is an empty page, so no tuple is lost by leaving one out; it is
+     * handed out again by the next append.
+     */
+    private int pagesInUse() {
+    	int pageSize = BufferPool.getPageSize();
+    	// a partial page at the end does not count
+    	int n = (int) (f.length() / pageSize);
+    	int least = Math.max(0, n - (extentPages - 1));
+    	ByteBuffer page = ByteBuffer.allocate(pageSize);
+    	try {
+    		while (n > least) {
+    			page.clear();
+    			readFully(page, (long) (n - 1) * pageSize);
+    			if (!isZeroes(page.array())) {
+    				break;
+    			}
+    			n--;
     		}
-    		input.close();
-    		return count/BufferPool.PAGE_SIZE;
-    	} catch (FileNotFoundException e) {System.err.println(e.getMessage());} catch (IOException e) {System.err.println(e.getMessage());}
-    	return 0;
+    	} catch (IOException e) {
+    		// an unreadable tail is left to the reads of its pages
+    	}
+    	return n;
+    }
+
+    private static boolean isZeroes(byte[] data) {
+    	for (byte b : data) {
+    		if (b != 0) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+
+    /**
+     * @return the map of the pages of this file that have room, loading it
+     * from its side file on first use
+     */
+    synchronized FreeSpaceMap freeSpaceMap() {
+        if (freeSpaceMap == null) {
+            freeSpaceMap = new FreeSpaceMap(FreeSpaceMap.sideFileFor(f), numPages());
+        }
+        return freeSpaceMap;
+    }
+
+    /**
+     * Writes the free space map of this file to its side file, if it was
+     * loaded and has changed since.
+     */
+    synchronized void saveFreeSpaceMap() throws IOException {
+        if (freeSpaceMap != null) {
+            freeSpaceMap.save();
+        }
+    }
+
+    /**
+     * Adds an empty page to the end of this file, taking it from the
+     * current extent, or growing the file by a new extent if the current
+     * one is used up.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendPage() throws IOException {
+        int pgno = numPages();
+        if (allocatedPages == -1) {
+            allocatedPages = (int) (f.length() / BufferPool.getPageSize());
+        }
+        if (pgno >= allocatedPages) {
+            // one large write of zeroes, so the extent is really allocated
+            // and not left as a hole in the file
+            int pages = extentPages;
+            ByteBuffer zeroes = ByteBuffer.allocate(pages * BufferPool.getPageSize());
+            long offset = (long) pgno * BufferPool.getPageSize();
+            try (FileHandleCache.Handle h = handle(true)) {
+                FileChannel ch = h.channel();
+                while (zeroes.hasRemaining()) {
+                    ch.write(zeroes, offset + zeroes.position());
+                }
+            }
+            allocatedPages = pgno + pages;
+            if (mapped) {
+                unforcedChannel = true;
+            }
+        }
+        extendTo(pgno + 1);
+        freeSpaceMap().setHasRoom(pgno, true);
+        return pgno;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        // pages below from were looked at and have no room for t
+        int from = 0;
+        while (true) {
+            int pgno = fsm.pageWithRoom(from);
+            if (pgno == -1) {
+                pgno = appendPage();
+            } else if (pgno >= numPages()) {
+                fsm.setHasRoom(pgno, false);
+                continue;
+            }
+            HeapPageId pid = new HeapPageId(getId(), pgno);
+            boolean held = bp.holdsLock(tid, pid);
+            TuplePage page = (TuplePage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (pgno >= numPages()) {
+                // cut off by a vacuum while waiting for the lock
+                if (!held) {
+                    bp.releasePage(tid, pid);
+                }
+                continue;
+            }
+            if (page.hasRoomFor(t)) {
+                page.insertTuple(t);
+                ArrayList<Page> pages = new ArrayList<Page>();
+                pages.add(page);
+                return pages;
+            }
+            // the page was not changed, so its lock can go unless tid had
+            // it already; a slotted page may still have room for smaller
+            // tuples, else the map was out of date
+            if (page.isFull()) {
+                fsm.setHasRoom(pgno, false);
+            }
+            from = pgno + 1;
+            if (!held) {
+                bp.releasePage(tid, pid);
+            }
+        }
     }
 
     // see DbFile.java for javadocs
@@ -113,7 +727,7 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         RecordId rid = t.getRecordId();
         BufferPool bp = Database.getBufferPool();
-        HeapPage page = (HeapPage)bp.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) bp.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
         if(page == null){
         	throw new DbException("could not get page from bufferpool");
         }
@@ -122,23 +736,83 @@ public class HeapFile implements DbFile {
     	pages.add(page);
     	return pages;
     }
+
+    /**
+     * Deletes the tuples of each run of RecordIds on the same page with a
+     * single getPage, so a batch sorted by page fetches and locks each page
+     * once. Each slot is emptied straight from its RecordId.
+     * <p/>
+     * If a delete fails, the pages changed by the batch so far are marked
+     * dirtied by tid before the failure is thrown, so that aborting tid
+     * undoes them.
+     *
+     * @see DbFile#deleteTuples
+     */
+    public ArrayList<Page> deleteTuples(TransactionId tid, List<RecordId> rids)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        Set<PageId> seen = new HashSet<PageId>();
+        TuplePage page = null;
+        boolean done = false;
+        try {
+            for (RecordId rid : rids) {
+                PageId pid = rid.getPageId();
+                if (pid.getTableId() != getId()) {
+                    throw new DbException("tuple not found");
+                }
+                if (page == null || !page.getId().equals(pid)) {
+                    page = (TuplePage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                    if (page == null) {
+                        throw new DbException("could not get page from bufferpool");
+                    }
+                    // a batch that is not sorted by page comes back to a page
+                    if (seen.add(pid)) {
+                        pages.add(page);
+                    }
+                }
+                page.deleteTuple(rid);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                bp.markDirtied(tid, pages);
+            }
+        }
+        return pages;
+    }
     
     public class myIterator implements DbFileIterator{
     	private int tableid;
+    	private int startPage;
+    	// -1 to scan to the end of the file, wherever it is
+    	private int endPage;
     	private int curpage;
     	private Tuple next = null;
     	private TransactionId tid;
     	private Iterator<Tuple> pageit = null;
     	private boolean open = false;
+    	private ReadAhead readAhead = null;
+    	private BufferRing ring = null;
     	
     	public myIterator(TransactionId tid){
+    		this(tid, 0, -1);
+    	}
+    	
+    	public myIterator(TransactionId tid, int startPage, int endPage){
     		this.tid = tid;
     		this.tableid = getId();
-    		curpage = 0;
+    		this.startPage = startPage;
+    		this.endPage = endPage;
+    		curpage = startPage;
     		next = null;
     	}
     	
-    	public boolean hasNext() {
+    	private int end(){
+    		return endPage == -1 ? numPages() : Math.min(endPage, numPages());
+    	}
+    	
+    	public boolean hasNext() throws DbException, TransactionAbortedException {
     		if(!open){
     			return false;
     		}
@@ -148,37 +822,40 @@ public class HeapFile implements DbFile {
             return next != null;
         }
     	
-    	public void fetchNext(){
-    		try{
-	    		if(pageit == null){
-	    			
-	    			BufferPool bp = Database.getBufferPool();
-	    			HeapPage page = (HeapPage) bp.getPage(this.tid, new HeapPageId(this.tableid, this.curpage), Permissions.READ_ONLY);
-	    			pageit = page.iterator();
-	    			curpage++;
-	    			if(pageit.hasNext()){
-	    				next = pageit.next();
-	    			}
-	    			else{
-	    				pageit = null;
-		    			if(curpage < numPages()){
-		    				fetchNext();
-		    			}
-	    			}
-	    		}
-	    		else if(! pageit.hasNext()){
-	    			pageit = null;
-	    			if(curpage < numPages()){
+    	public void fetchNext() throws DbException, TransactionAbortedException {
+    		if(pageit == null){
+    			if(curpage >= end()){
+    				return;
+    			}
+    			BufferPool bp = Database.getBufferPool();
+    			if (readAhead != null) {
+    				readAhead.pageRequested(this.curpage);
+    			}
+    			TuplePage page = (TuplePage) bp.getPage(this.tid, new HeapPageId(this.tableid, this.curpage), Permissions.READ_ONLY, ring);
+    			pageit = page.iterator();
+    			curpage++;
+    			if(pageit.hasNext()){
+    				next = pageit.next();
+    			}
+    			else{
+    				pageit = null;
+	    			if(curpage < end()){
 	    				fetchNext();
 	    			}
-	    		}
-	    		else{
-	    			next = pageit.next();
-	    		}
-    		} catch (TransactionAbortedException e) {System.err.println(e.getMessage());} catch (DbException e) {System.err.println(e.getMessage());}
+    			}
+    		}
+    		else if(! pageit.hasNext()){
+    			pageit = null;
+    			if(curpage < end()){
+    				fetchNext();
+    			}
+    		}
+    		else{
+    			next = pageit.next();
+    		}
     	}
     	
-    	public Tuple next(){
+    	public Tuple next() throws DbException, TransactionAbortedException {
     		if (!open || !hasNext()) {
                 throw new NoSuchElementException("does not have next element");
             }
@@ -188,13 +865,17 @@ public class HeapFile implements DbFile {
     	}
     	
     	public void rewind(){
-    		curpage = 0;
+    		curpage = startPage;
     		next = null;
     		pageit = null;
     	}
     	
     	public void open(){
     		open = true;
+    		int end = end();
+    		ring = Database.getBufferPool().newScanRing(Math.max(0, end - startPage));
+    		// a mapped file is read ahead by the operating system
+    		readAhead = mapped ? null : new ReadAhead(HeapFile.this, startPage, end, ring);
     	}
     	
     	public void close(){
@@ -211,5 +892,19 @@ public class HeapFile implements DbFile {
         return new myIterator(tid);
     }
 
+    /**
+     * Returns an iterator over the tuples on pages [startPage, endPage) of
+     * this file, so that a scan can be split into page ranges that run in
+     * parallel. Pages past the end of the file are skipped.
+     *
+     * @see ParallelSeqScan
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        if (startPage < 0 || endPage < startPage) {
+            throw new IllegalArgumentException("bad page range [" + startPage + ", " + endPage + ")");
+        }
+        return new myIterator(tid, startPage, endPage);
+    }
+
 }
 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -10,20 +11,45 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
+
+    private static final byte[] ZEROES = new byte[512];
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    // bit i % 64 of word i / 64 is set if slot i is used; the on-disk
+    // header is the same bits, eight to a byte. Guarded by oldDataLock.
+    private final long[] used;
+    // the number of header bytes on disk
+    private final int headerSize;
+    // the number of clear bits in used below numSlots; guarded by oldDataLock
+    private int numEmpty;
+    // the tuples inserted since the last setBeforeImage; the tuple of a used
+    // slot that is null here is in raw, and is decoded every time it is
+    // asked for, so a page keeps no Tuples for what it read
     final Tuple tuples[];
     final int numSlots;
+    private final int tupleSize;
     private boolean dirty = false;
     private TransactionId tid;
+    // a private copy of the before image, taken only when the bytes the page
+    // was created from cannot serve as one any longer; raw then points at it
     byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    private final Object oldDataLock = new Object();
+    // the BufferPool frame the page was created over, if any; raw is the
+    // frame while it is set; guarded by oldDataLock
+    private ByteBuffer frame;
+    // the page as of its last setBeforeImage: the data passed in, the
+    // frame, or a copy of them. It is the before image, and holds every
+    // tuple but those inserted after it was taken, since changes to the
+    // page only ever go to the header and tuples. Guarded by oldDataLock.
+    private ByteBuffer raw;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
+     * Only the header is read up front; the page keeps data, which must not
+     * be changed afterwards, as its before image and decodes a tuple from
+     * it whenever it is asked for.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to: <p>
@@ -40,27 +66,63 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data), null);
+    }
+
+    /**
+     * Create a HeapPage over a BufferPool frame that holds the page as it
+     * was read from disk. The frame is kept as the page's before image, and
+     * tuples are decoded straight from it, so no private copy of the page
+     * bytes is made.
+     * <p/>
+     * The frame may be read-only, as when it is a slice of a memory-mapped
+     * file that writes of the page will overwrite. The page then takes a
+     * private copy of its before image the first time it is dirtied.
+     *
+     * @param frame a view of exactly one page, positioned at its start
+     * @see FrameArena
+     */
+    public HeapPage(HeapPageId id, ByteBuffer frame) throws IOException {
+        this(id, frame, frame);
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer data, ByteBuffer frame) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        if (data.remaining() < BufferPool.getPageSize()) {
+            throw new EOFException("short page " + pid);
+        }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        // read the header slots of this page, eight bytes to a word
+        headerSize = getHeaderSize();
+        used = new long[(numSlots + 63) >>> 6];
+        for (int k = 0; k < headerSize; k++) {
+            used[k >>> 3] |= (data.get(data.position() + k) & 0xffL) << ((k & 7) << 3);
+        }
+        if ((numSlots & 63) != 0) {
+            // the bits past the last slot are padding
+            used[used.length - 1] &= (1L << numSlots) - 1;
+        }
+        int usedSlots = 0;
+        for (long word : used) {
+            usedSlots += Long.bitCount(word);
+        }
+        numEmpty = numSlots - usedSlots;
 
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        raw = data.position() == 0 ? data : data.slice();
+
+        // data is the before image until the page is changed and committed,
+        // so there is nothing to copy here
+        this.frame = frame;
+    }
 
-        setBeforeImage();
+    private static byte[] contentsOf(ByteBuffer frame) {
+        byte[] data = new byte[frame.remaining()];
+        frame.duplicate().get(data);
+        return data;
     }
 
     /**
@@ -91,7 +153,13 @@ public class HeapPage implements Page {
         try {
             byte[] oldDataRef = null;
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                if (frame == null && raw.hasArray() && raw.arrayOffset() == 0
+                        && raw.array().length == BufferPool.getPageSize()) {
+                    // an array that is replaced, never changed, can be shared
+                    oldDataRef = raw.array();
+                } else {
+                    oldDataRef = contentsOf(raw);
+                }
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -104,7 +172,57 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            if (frame != null && !frame.isReadOnly()) {
+                writePageData(frame.duplicate());
+            } else {
+                frame = null;
+                oldData = getPageData();
+                // the before image is the page as it is now, so it holds
+                // every tuple; oldData is replaced, never changed, so it
+                // can be shared
+                raw = ByteBuffer.wrap(oldData);
+            }
+            // raw holds the inserted tuples now
+            Arrays.fill(tuples, null);
+        }
+    }
+
+    /**
+     * @return whether the page is over a BufferPool frame
+     */
+    boolean inFrame() {
+        synchronized (oldDataLock) {
+            return frame != null;
+        }
+    }
+
+    /**
+     * Called by the BufferPool when the frame this page was created over is
+     * about to be reused. The page must be clean, so the frame holds its
+     * current contents, which serve as its before image from now on.
+     */
+    void detachFrame() {
+        synchronized (oldDataLock) {
+            if (frame != null && raw == frame) {
+                raw = ByteBuffer.wrap(contentsOf(frame));
+            }
+            frame = null;
+        }
+    }
+
+    /**
+     * Called by the BufferPool when it moves this page to another frame;
+     * copies the before image over, if this page keeps it in its frame.
+     */
+    void moveFrame(ByteBuffer newFrame) {
+        synchronized (oldDataLock) {
+            if (frame != null) {
+                newFrame.duplicate().put(frame.duplicate());
+                if (raw == frame) {
+                    raw = newFrame;
+                }
+                frame = newFrame;
+            }
         }
     }
 
@@ -116,37 +234,41 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot i, decoding it from the page bytes unless
+     * it was inserted since the last setBeforeImage, or null if the slot is
+     * empty. The page does not keep the decoded tuple.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private Tuple tuple(int i) throws NoSuchElementException {
+        synchronized (oldDataLock) {
+            Tuple t = tuples[i];
+            if (t == null && isSlotUsed(i)) {
+                t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, decodeField(i, j));
                 }
             }
-            return null;
+            return t;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Reads field j of slot i from raw; the caller holds oldDataLock.
+     */
+    private Field decodeField(int i, int j) throws NoSuchElementException {
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(j).parse(raw, slotOffset(i) + td.getOffset(j));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * @return the offset of slot i in the page bytes
+     */
+    private int slotOffset(int i) {
+        return headerSize + i * tupleSize;
     }
 
     /**
@@ -161,64 +283,65 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
 
-                }
-                continue;
+    /**
+     * Writes the bytes {@link #getPageData()} returns into dst, without
+     * allocating anything: runs of tuples that are in the page bytes are
+     * copied from them in bulk, runs of empty slots are zeroed, and only
+     * inserted tuples are serialized field by field.
+     */
+    public void writePageData(ByteBuffer dst) {
+        int end = dst.position() + BufferPool.getPageSize();
+        synchronized (oldDataLock) {
+            for (int k = 0; k < headerSize; k++) {
+                dst.put((byte) (used[k >>> 3] >>> ((k & 7) << 3)));
             }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
+            int i = 0;
+            while (i < numSlots) {
+                int j = i + 1;
+                if (!isSlotUsed(i)) {
+                    j = nextUsedSlot(i);
+                    if (j == -1) {
+                        j = numSlots;
+                    }
+                    putZeroes(dst, (j - i) * tupleSize);
+                } else if (tuples[i] == null) {
+                    // not inserted since, so their bytes are in raw
+                    while (j < numSlots && isSlotUsed(j) && tuples[j] == null) {
+                        j++;
+                    }
+                    if (raw.hasArray()) {
+                        dst.put(raw.array(), raw.arrayOffset() + slotOffset(i), (j - i) * tupleSize);
+                    } else {
+                        ByteBuffer src = raw.duplicate();
+                        src.limit(slotOffset(j));
+                        src.position(slotOffset(i));
+                        dst.put(src);
+                    }
+                } else {
+                    Tuple t = tuples[i];
+                    for (int k = 0; k < td.numFields(); k++) {
+                        t.getField(k).serialize(dst);
+                    }
                 }
+                i = j;
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        putZeroes(dst, end - dst.position());
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void putZeroes(ByteBuffer dst, int n) {
+        while (n > 0) {
+            int k = Math.min(n, ZEROES.length);
+            dst.put(ZEROES, 0, k);
+            n -= k;
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -244,18 +367,32 @@ public class HeapPage implements Page {
      *                     already empty.
      */
     public void deleteTuple(Tuple t) throws DbException {
-        int i = 0;
-        while(! (t.equals(tuples[i]))){
-        	i++;
-        	if(i >= header.length*8){
-        		throw new DbException("tuple not found");
-        	}
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple not found");
         }
-        if(tuples[i] == null){
-        	throw new DbException("slot already empty");
+        deleteTuple(t.getRecordId());
+    }
+
+    /**
+     * Empties the slot rid names, which goes straight to the slot rather
+     * than looking for a tuple.
+     *
+     * @throws DbException if rid is not on this page, or its slot is
+     *                     already empty.
+     */
+    public void deleteTuple(RecordId rid) throws DbException {
+        int i = rid.tupleno();
+        if (!pid.equals(rid.getPageId()) || i < 0 || i >= numSlots) {
+            throw new DbException("tuple not found");
         }
-        tuples[i] = null;
-        markSlotUsed(i, false);
+        synchronized (oldDataLock) {
+            if (!isSlotUsed(i)) {
+                throw new DbException("slot already empty");
+            }
+            tuples[i] = null;
+            markSlotUsed(i, false);
+        }
+        HeapFile.noteFreeSpace(pid, true);
     }
 
     /**
@@ -267,21 +404,23 @@ public class HeapPage implements Page {
      *                     is mismatch.
      */
     public void insertTuple(Tuple t) throws DbException {
-    	//System.out.println(getNumEmptySlots());
-        int i = 0;
-        while(isSlotUsed(i)){
-        	i++;
-        	if(i >= header.length*8){
-        		throw new DbException("no empty slots");
-        	}
-        }
         if(! t.getTupleDesc().equals(td)){
         	throw new DbException("tupledesc does not match");
         }
-        t.setRecordId(new RecordId(this.pid, i));
-        tuples[i] = t;
-        markSlotUsed(i, true);
-        //System.out.println(getNumEmptySlots());
+        boolean full;
+        synchronized (oldDataLock) {
+            int i = nextFreeSlot(0);
+            if (i == -1) {
+                throw new DbException("no empty slots");
+            }
+            t.setRecordId(new RecordId(this.pid, i));
+            tuples[i] = t;
+            markSlotUsed(i, true);
+            full = numEmpty == 0;
+        }
+        if (full) {
+            HeapFile.noteFreeSpace(pid, false);
+        }
     }
 
     /**
@@ -290,6 +429,17 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         if(dirty){
+        	synchronized (oldDataLock) {
+        		if (frame != null && frame.isReadOnly()) {
+        			// the file under a read-only frame changes when the
+        			// page is written, so keep the before image apart
+        			oldData = contentsOf(frame);
+        			if (raw == frame) {
+        				raw = ByteBuffer.wrap(oldData);
+        			}
+        			frame = null;
+        		}
+        	}
         	this.dirty = true;
         	this.tid = tid;
         }
@@ -310,42 +460,83 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-    	int empty = 0;
-        for(int i = 0; i < this.getNumTuples(); i++){
-        	if(! this.isSlotUsed(i)){
-        		empty ++;
-        	}
+        synchronized (oldDataLock) {
+            return numEmpty;
         }
-        return empty;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean isFull() {
+        return getNumEmptySlots() == 0;
+    }
+
+    public boolean isEmpty() {
+        return getNumEmptySlots() == numSlots;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        byte slot = header[i/8];
-        int place = 1 << i%8;
-        if((slot & place) == 0){
-        	return false;
+        synchronized (oldDataLock) {
+            return (used[i >>> 6] & (1L << i)) != 0;
         }
-        else return true;
     }
 
     /**
-     * Abstraction to fill or clear a slot on this page.
+     * Abstraction to fill or clear a slot on this page; the caller holds
+     * oldDataLock.
      */
     private void markSlotUsed(int i, boolean value) {
-    	//System.out.println(isSlotUsed(i));
-    	byte slot = header[i/8];
-        int place = 1 << i%8;
-        if(value){
-        	header[i/8] = (byte)(slot | place);
+        long bit = 1L << i;
+        if (((used[i >>> 6] & bit) != 0) == value) {
+            return;
         }
-        else{
-        	header[i/8] = (byte)(slot & ~place);
+        used[i >>> 6] ^= bit;
+        numEmpty += value ? -1 : 1;
+    }
+
+    /**
+     * @return the first used slot numbered from or above, or -1 if there
+     * is none; the caller holds oldDataLock
+     */
+    private int nextUsedSlot(int from) {
+        int w = from >>> 6;
+        if (w >= used.length) {
+            return -1;
+        }
+        long word = used[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == used.length) {
+                return -1;
+            }
+            word = used[w];
         }
-        //System.out.println(value + " " + isSlotUsed(i));
-        //System.out.println(getNumEmptySlots());
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return the first empty slot numbered from or above, or -1 if there
+     * is none; the caller holds oldDataLock
+     */
+    private int nextFreeSlot(int from) {
+        int w = from >>> 6;
+        if (w >= used.length) {
+            return -1;
+        }
+        long word = ~used[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == used.length) {
+                return -1;
+            }
+            word = ~used[w];
+        }
+        int i = (w << 6) + Long.numberOfTrailingZeros(word);
+        // the clear bits past the last slot are not slots
+        return i < numSlots ? i : -1;
     }
 
     /**
@@ -370,15 +561,18 @@ public class HeapPage implements Page {
         }
     	
     	public void fetchNext(){
-    		while (curindex < tuples.length && ! isSlotUsed(curindex)) {
-    			//System.out.println(curindex + " " + isSlotUsed(curindex));
-                curindex++;
-            }
-    		if(curindex < tuples.length){
-    			next = tuples[curindex];
-    			curindex++;
+    		int i;
+    		synchronized (oldDataLock) {
+    			i = nextUsedSlot(curindex);
+    		}
+    		if(i != -1){
+    			next = tuple(i);
+    			curindex = i + 1;
+    		}
+    		else{
+    			next = null;
+    			curindex = numSlots;
     		}
-    		else next = null;
     	}
     	
     	public Tuple next() throws NoSuchElementException{
@@ -43,8 +43,7 @@ public class HeapPageId implements PageId {
      * @see BufferPool
      */
     public int hashCode() {
-        String hash = Integer.toString(this.getTableId()) + "/" + Integer.toString(this.pageNumber());
-        return hash.hashCode();
+        return 31 * this.tid + this.pgno;
     }
 
     /**
@@ -0,0 +1,458 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager grants shared and exclusive page-level locks to transactions
+ * on behalf of the BufferPool. A transaction holding the only shared lock on
+ * a page may upgrade it to an exclusive lock.
+ * <p/>
+ * The lock table is split into stripes by PageId hash, each guarded by its
+ * own monitor, so transactions locking unrelated pages never contend on a
+ * common lock. Waiters block on the monitor of the stripe that holds the
+ * page they want.
+ * <p/>
+ * Deadlocks are detected, not timed out: every blocked request records
+ * waits-for edges from the requester to the transactions it waits on, and
+ * only those new edges are searched for a cycle. The edges are kept per
+ * request, since several threads of one transaction (the splits of a
+ * {@link ParallelSeqScan}) may be blocked at once, each on its own page;
+ * a transaction waits for the holders of all its blocked requests. When a cycle is found,
+ * the transaction in it that has done the least work (as reported by a
+ * {@link WorkEstimator}) is chosen as the victim and its pending request
+ * fails with TransactionAbortedException; everyone else keeps waiting.
+ *
+ * @Threadsafe
+ * @see BufferPool#getPage
+ */
+public class LockManager {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Estimates how much work a transaction would lose if it were aborted.
+     */
+    public interface WorkEstimator {
+        public int workDone(TransactionId tid);
+    }
+
+    /**
+     * The lock on a single page: either one exclusive owner (who may also
+     * appear among the sharers after an upgrade), or any number of sharers.
+     */
+    private static class PageLock {
+        TransactionId exclusive = null;
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>();
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty();
+        }
+    }
+
+    private static class Stripe {
+        final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+        // the blocked requests for each page
+        final HashMap<PageId, Set<Request>> waiting = new HashMap<PageId, Set<Request>>();
+    }
+
+    /**
+     * A blocked call to acquire: the page it wants, the stripe it waits on,
+     * and the transactions holding the lock it wants. The holders are
+     * guarded by waitsFor, and a transaction that releases the page is
+     * taken out of them right away, so they never hold a stale edge.
+     */
+    private static class Request {
+        final PageId pid;
+        final Stripe stripe;
+        Set<TransactionId> holders = Collections.emptySet();
+
+        Request(PageId pid, Stripe stripe) {
+            this.pid = pid;
+            this.stripe = stripe;
+        }
+    }
+
+    private final Stripe[] stripes;
+
+    // pages on which each transaction holds a lock of either kind
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    // the blocked requests of each transaction, which make up the
+    // waits-for graph; guarded by waitsFor. Stripe monitors are always
+    // taken before it.
+    private final HashMap<TransactionId, Set<Request>> waitsFor =
+            new HashMap<TransactionId, Set<Request>>();
+
+    // victims whose pending (or next) request must fail
+    private final Set<TransactionId> victims =
+            Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+
+    private final WorkEstimator estimator;
+    private final AtomicLong deadlocksDetected = new AtomicLong();
+    private final AtomicLong victimsAborted = new AtomicLong();
+
+    /**
+     * Creates a lock manager that picks deadlock victims by the number of
+     * locks they hold.
+     */
+    public LockManager() {
+        this(DEFAULT_STRIPES, null);
+    }
+
+    /**
+     * @param numStripes number of independently locked lock table stripes
+     * @param estimator  ranks deadlock victims; if null, the number of locks
+     *                   held is used
+     */
+    public LockManager(int numStripes, WorkEstimator estimator) {
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+        if (estimator == null) {
+            estimator = new WorkEstimator() {
+                public int workDone(TransactionId tid) {
+                    return getLockedPages(tid).size();
+                }
+            };
+        }
+        this.estimator = estimator;
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * Acquires the lock implied by perm: a shared lock for READ_ONLY, an
+     * exclusive lock for READ_WRITE. Blocks until the lock is granted.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *                                     of a deadlock, or the wait is
+     *                                     interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        Stripe stripe = stripeFor(pid);
+        Request request = new Request(pid, stripe);
+        while (true) {
+            ArrayList<Stripe> wake = null;
+            synchronized (stripe) {
+                if (victims.contains(tid)) {
+                    stopWaiting(tid, request);
+                    throw new TransactionAbortedException();
+                }
+                if (tryGrant(stripe, tid, pid, exclusive)) {
+                    stopWaiting(tid, request);
+                    break;
+                }
+                TransactionId victim = startWaiting(tid, request,
+                        blockers(stripe.locks.get(pid), tid, exclusive));
+                if (victim == null) {
+                    try {
+                        stripe.wait();
+                    } catch (InterruptedException e) {
+                        stopWaiting(tid, request);
+                        throw new TransactionAbortedException();
+                    }
+                } else if (victim.equals(tid)) {
+                    stopWaiting(tid, request);
+                    throw new TransactionAbortedException();
+                } else {
+                    wake = new ArrayList<Stripe>();
+                    synchronized (waitsFor) {
+                        Set<Request> blocked = waitsFor.get(victim);
+                        if (blocked != null) {
+                            for (Request r : blocked) {
+                                wake.add(r.stripe);
+                            }
+                        }
+                    }
+                }
+            }
+            // wake the victim up so it notices, without holding our stripe
+            if (wake != null) {
+                for (Stripe s : wake) {
+                    synchronized (s) {
+                        s.notifyAll();
+                    }
+                }
+            }
+        }
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null) {
+            Set<PageId> newPages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pages = lockedPages.putIfAbsent(tid, newPages);
+            if (pages == null) {
+                pages = newPages;
+            }
+        }
+        pages.add(pid);
+    }
+
+    /**
+     * Grants the lock if it is compatible with the current holders.
+     * Caller must hold the stripe monitor.
+     */
+    private boolean tryGrant(Stripe stripe, TransactionId tid, PageId pid, boolean exclusive) {
+        PageLock lock = stripe.locks.get(pid);
+        if (lock == null) {
+            lock = new PageLock();
+            stripe.locks.put(pid, lock);
+        }
+        if (lock.exclusive != null) {
+            return lock.exclusive.equals(tid);
+        }
+        if (!exclusive) {
+            lock.sharers.add(tid);
+            return true;
+        }
+        // exclusive request: free, or an upgrade by the only sharer
+        if (lock.sharers.isEmpty()
+                || (lock.sharers.size() == 1 && lock.sharers.contains(tid))) {
+            lock.exclusive = tid;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the transactions that keep tid from being granted the lock
+     */
+    private static Set<TransactionId> blockers(PageLock lock, TransactionId tid, boolean exclusive) {
+        HashSet<TransactionId> blocking = new HashSet<TransactionId>();
+        if (lock.exclusive != null && !lock.exclusive.equals(tid)) {
+            blocking.add(lock.exclusive);
+        }
+        if (exclusive) {
+            blocking.addAll(lock.sharers);
+            blocking.remove(tid);
+        }
+        return blocking;
+    }
+
+    /**
+     * Records that a request of tid is blocked, waiting for the given
+     * holders, and checks whether the new edges close a cycle. Caller must
+     * hold the request's stripe monitor.
+     *
+     * @return the chosen victim if a deadlock was found, else null
+     */
+    private TransactionId startWaiting(TransactionId tid, Request request, Set<TransactionId> holders) {
+        Set<Request> onPage = request.stripe.waiting.get(request.pid);
+        if (onPage == null) {
+            onPage = new HashSet<Request>();
+            request.stripe.waiting.put(request.pid, onPage);
+        }
+        onPage.add(request);
+        synchronized (waitsFor) {
+            request.holders = holders;
+            Set<Request> blocked = waitsFor.get(tid);
+            if (blocked == null) {
+                blocked = new HashSet<Request>();
+                waitsFor.put(tid, blocked);
+            }
+            blocked.add(request);
+            for (TransactionId holder : request.holders) {
+                HashMap<TransactionId, TransactionId> parents = new HashMap<TransactionId, TransactionId>();
+                parents.put(holder, tid);
+                if (reaches(holder, tid, parents)) {
+                    // walk the cycle back from tid to collect its members
+                    HashSet<TransactionId> cycle = new HashSet<TransactionId>();
+                    TransactionId t = parents.get(tid);
+                    cycle.add(tid);
+                    while (!t.equals(tid)) {
+                        cycle.add(t);
+                        t = parents.get(t);
+                    }
+                    TransactionId victim = cheapest(cycle);
+                    deadlocksDetected.incrementAndGet();
+                    victimsAborted.incrementAndGet();
+                    victims.add(victim);
+                    return victim;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Depth-first search over the waits-for graph for a path from "from" to
+     * target, recording each visited node's parent. Victims that are
+     * already on their way out are treated as if they had no edges.
+     */
+    private boolean reaches(TransactionId from, TransactionId target,
+                            HashMap<TransactionId, TransactionId> parents) {
+        if (from.equals(target)) {
+            return true;
+        }
+        Set<Request> blocked = waitsFor.get(from);
+        if (blocked == null || victims.contains(from)) {
+            return false;
+        }
+        HashSet<TransactionId> next = new HashSet<TransactionId>();
+        for (Request r : blocked) {
+            next.addAll(r.holders);
+        }
+        for (TransactionId t : next) {
+            if (t.equals(target)) {
+                parents.put(t, from);
+                return true;
+            }
+            if (!parents.containsKey(t)) {
+                parents.put(t, from);
+                if (reaches(t, target, parents)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the member of the cycle with the least work done; ties go to
+     * the youngest transaction
+     */
+    private TransactionId cheapest(Set<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimWork = Integer.MAX_VALUE;
+        for (TransactionId t : cycle) {
+            int work = estimator.workDone(t);
+            if (work < victimWork || (work == victimWork && t.getId() > victim.getId())) {
+                victim = t;
+                victimWork = work;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Forgets a request of tid that is no longer blocked. Caller must hold
+     * the request's stripe monitor.
+     */
+    private void stopWaiting(TransactionId tid, Request request) {
+        Set<Request> onPage = request.stripe.waiting.get(request.pid);
+        if (onPage != null) {
+            onPage.remove(request);
+            if (onPage.isEmpty()) {
+                request.stripe.waiting.remove(request.pid);
+            }
+        }
+        synchronized (waitsFor) {
+            Set<Request> blocked = waitsFor.get(tid);
+            if (blocked != null) {
+                blocked.remove(request);
+                if (blocked.isEmpty()) {
+                    waitsFor.remove(tid);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of deadlocks found so far
+     */
+    public long getDeadlocksDetected() {
+        return deadlocksDetected.get();
+    }
+
+    /**
+     * @return the number of transactions chosen as deadlock victims so far
+     */
+    public long getVictimsAborted() {
+        return victimsAborted.get();
+    }
+
+    /**
+     * @return true if tid holds a lock of either kind on pid
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        return pages != null && pages.contains(pid);
+    }
+
+    /**
+     * @return true if tid holds an exclusive lock on pid
+     */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        synchronized (stripe) {
+            PageLock lock = stripe.locks.get(pid);
+            return lock != null && tid.equals(lock.exclusive);
+        }
+    }
+
+    /**
+     * Releases whatever lock tid holds on pid.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        Stripe stripe = stripeFor(pid);
+        synchronized (stripe) {
+            PageLock lock = stripe.locks.get(pid);
+            if (lock == null) {
+                return;
+            }
+            if (tid.equals(lock.exclusive)) {
+                lock.exclusive = null;
+            }
+            lock.sharers.remove(tid);
+            if (lock.isFree()) {
+                stripe.locks.remove(pid);
+            }
+            // tid may go on to wait for one of the waiters; their edges to
+            // it must be gone before then, or they would close a cycle that
+            // no longer exists
+            Set<Request> onPage = stripe.waiting.get(pid);
+            if (onPage != null) {
+                synchronized (waitsFor) {
+                    for (Request r : onPage) {
+                        r.holders.remove(tid);
+                    }
+                }
+            }
+            stripe.notifyAll();
+        }
+    }
+
+    /**
+     * Releases every lock held by tid.
+     */
+    public void releaseAll(TransactionId tid) {
+        victims.remove(tid);
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+        }
+        Set<PageId> pages = lockedPages.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            release(tid, pid);
+        }
+    }
+
+    /**
+     * @return the pages tid currently holds locks on
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(pages);
+    }
+}
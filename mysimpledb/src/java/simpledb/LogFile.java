@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -74,6 +75,8 @@ public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    // reused by writePageData; guarded by this
+    private ByteBuffer pageBuffer = null;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -244,12 +247,25 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = pageBuffer();
+        p.writePageData(pageData);
+        raf.writeInt(pageData.position());
+        raf.write(pageData.array(), 0, pageData.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /**
+     * @return the buffer page data is serialized into on its way to the
+     * log, cleared
+     */
+    private synchronized ByteBuffer pageBuffer() {
+        if (pageBuffer == null || pageBuffer.capacity() != BufferPool.getPageSize()) {
+            pageBuffer = ByteBuffer.allocate(BufferPool.getPageSize());
+        }
+        pageBuffer.clear();
+        return pageBuffer;
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -279,7 +295,14 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            Constructor<?> pageConst = pageConsts[0];
+            for (Constructor<?> c : pageConsts) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e) {
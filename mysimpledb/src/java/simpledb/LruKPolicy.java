@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the frame
+ * whose K-th most recent reference lies furthest in the past; frames with
+ * fewer than K references count as infinitely old and are evicted first, in
+ * LRU order among themselves.
+ * <p/>
+ * Reference history is kept per page rather than per frame and survives
+ * eviction for a bounded number of pages, so a page that is re-read soon
+ * after being evicted keeps its history.
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private PageId[] framePages = new PageId[0];
+    private int retained = 0;
+    private long clock = 0;
+
+    // last k reference times of each page, most recent first; 0 is "never"
+    private final LinkedHashMap<PageId, long[]> history =
+            new LinkedHashMap<PageId, long[]>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                    return size() > retained;
+                }
+            };
+
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+    }
+
+    public synchronized void setNumFrames(int numFrames) {
+        PageId[] newPages = new PageId[numFrames];
+        System.arraycopy(framePages, 0, newPages, 0, Math.min(numFrames, framePages.length));
+        framePages = newPages;
+        retained = 2 * numFrames;
+    }
+
+    public synchronized void recordLoad(int frame, PageId pid) {
+        framePages[frame] = pid;
+        reference(pid);
+    }
+
+    public synchronized void recordAccess(int frame) {
+        if (frame < framePages.length && framePages[frame] != null) {
+            reference(framePages[frame]);
+        }
+    }
+
+    public synchronized void recordRemoval(int frame) {
+        framePages[frame] = null;
+    }
+
+    public synchronized int chooseVictim(Evictable evictable) {
+        int victim = -1;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (int frame = 0; frame < framePages.length; frame++) {
+            if (framePages[frame] == null || !evictable.canEvict(frame)) {
+                continue;
+            }
+            long[] times = history.get(framePages[frame]);
+            long kth = times == null ? 0 : times[k - 1];
+            long last = times == null ? 0 : times[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                victim = frame;
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+
+    private void reference(PageId pid) {
+        long[] times = history.get(pid);
+        if (times == null) {
+            times = new long[k];
+            history.put(pid, times);
+        }
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used evictable frame.
+ *
+ * @Threadsafe
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    // frames in access order, least recently used first
+    private final LinkedHashMap<Integer, Integer> order =
+            new LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+
+    public synchronized void setNumFrames(int numFrames) {
+        Iterator<Integer> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next() >= numFrames) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void recordLoad(int frame, PageId pid) {
+        order.put(frame, frame);
+    }
+
+    public synchronized void recordAccess(int frame) {
+        order.get(frame);
+    }
+
+    public synchronized void recordRemoval(int frame) {
+        order.remove(frame);
+    }
+
+    public synchronized int chooseVictim(Evictable evictable) {
+        for (Integer frame : order.keySet()) {
+            if (evictable.canEvict(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -7,7 +9,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  * <p/>
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  * Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -46,6 +48,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Writes the bytes getPageData would return into dst at its position,
+     * and advances the position past them. Pages that can serialize
+     * themselves without building the array first should override this.
+     *
+     * @param dst a buffer with room for the page
+     */
+    public default void writePageData(ByteBuffer dst) {
+        dst.put(getPageData());
+    }
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
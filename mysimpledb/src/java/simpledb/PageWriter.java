@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * PageWriter is a background thread that trickles dirty pages from a
+ * BufferPool to disk, so that there are enough clean frames for evictions
+ * to take without waiting on a write.
+ * <p/>
+ * The pool queues every page as it is dirtied. The writer sleeps until the
+ * fraction of frames that are dirty rises above 1 - targetCleanFraction,
+ * then writes queued pages in the order they were dirtied until the target
+ * is met again. Pages are written through {@link BufferPool#writeBack},
+ * which logs the page before writing it, so write-ahead order is kept even
+ * for pages of transactions that have not committed yet.
+ * <p/>
+ * Writes are rate limited to maxWritesPerSecond, if positive, so that the
+ * writer does not compete with foreground reads for the disk.
+ *
+ * @Threadsafe
+ * @see BufferPool#startPageWriter()
+ */
+public class PageWriter extends Thread {
+
+    public static final double DEFAULT_TARGET_CLEAN_FRACTION = 0.25;
+    public static final int DEFAULT_MAX_WRITES_PER_SECOND = 0;
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+
+    private final BufferPool pool;
+
+    // dirty pages in the order they were first dirtied; guarded by this
+    private final LinkedHashSet<PageId> queue = new LinkedHashSet<PageId>();
+
+    private volatile double targetCleanFraction = DEFAULT_TARGET_CLEAN_FRACTION;
+    private volatile int maxWritesPerSecond = DEFAULT_MAX_WRITES_PER_SECOND;
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile boolean running = true;
+
+    private volatile long pagesWritten = 0;
+    private long lastWriteNanos = 0;
+    // pages put back in the queue since the last write; guarded by this
+    private int skipped = 0;
+
+    /**
+     * @param pool the pool to clean
+     */
+    PageWriter(BufferPool pool) {
+        super("PageWriter");
+        this.pool = pool;
+        setDaemon(true);
+    }
+
+    /**
+     * Sets the fraction of frames the writer tries to keep clean. 0 only
+     * writes pages when asked to, 1 writes every page as soon as it is
+     * dirtied.
+     */
+    public void setTargetCleanFraction(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1");
+        }
+        targetCleanFraction = fraction;
+        wake();
+    }
+
+    public double getTargetCleanFraction() {
+        return targetCleanFraction;
+    }
+
+    /**
+     * Limits the number of pages written per second; 0 means no limit.
+     */
+    public void setMaxWritesPerSecond(int writesPerSecond) {
+        if (writesPerSecond < 0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        maxWritesPerSecond = writesPerSecond;
+    }
+
+    public int getMaxWritesPerSecond() {
+        return maxWritesPerSecond;
+    }
+
+    /**
+     * Sets how often the writer checks the queue when nobody wakes it.
+     */
+    public void setIntervalMillis(long millis) {
+        intervalMillis = millis;
+    }
+
+    /**
+     * @return the number of dirty pages waiting to be written
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of pages written by this writer so far
+     */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * Queues a page that was just dirtied.
+     */
+    synchronized void enqueue(PageId pid) {
+        if (queue.add(pid) && needsCleaning()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forgets a page that was written or discarded by the pool itself.
+     */
+    synchronized void dequeue(PageId pid) {
+        queue.remove(pid);
+    }
+
+    /**
+     * Wakes the writer to recheck the queue right away.
+     */
+    synchronized void wake() {
+        notifyAll();
+    }
+
+    /**
+     * Stops the writer once its current write finishes, and waits for it.
+     */
+    public void shutdown() {
+        running = false;
+        wake();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean needsCleaning() {
+        return queue.size() > pool.getNumPages() * (1 - targetCleanFraction);
+    }
+
+    public void run() {
+        while (running) {
+            PageId next = null;
+            synchronized (this) {
+                // every queued page was put back since the last write, as
+                // when they are all pinned; wait rather than spin on them
+                boolean stuck = skipped > 0 && skipped >= queue.size();
+                if (!needsCleaning() || queue.isEmpty() || stuck) {
+                    skipped = 0;
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+                Iterator<PageId> it = queue.iterator();
+                next = it.next();
+                it.remove();
+            }
+            throttle();
+            try {
+                if (pool.writeBack(next)) {
+                    pagesWritten++;
+                    synchronized (this) {
+                        skipped = 0;
+                    }
+                } else if (pool.isDirtyResident(next)) {
+                    // pinned for now; try again after the rest of the queue
+                    synchronized (this) {
+                        if (queue.add(next)) {
+                            skipped++;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // leave the page dirty; it is written at commit instead
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sleeps long enough to keep under maxWritesPerSecond.
+     */
+    private void throttle() {
+        int rate = maxWritesPerSecond;
+        if (rate > 0) {
+            long gap = 1000000000L / rate;
+            long wait = lastWriteNanos + gap - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        lastWriteNanos = System.nanoTime();
+    }
+}
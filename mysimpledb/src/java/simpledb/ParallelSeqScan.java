@@ -0,0 +1,288 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan is a sequential scan that splits its table into page
+ * ranges and scans the ranges concurrently on a ForkJoinPool, returning
+ * the tuples of all ranges as they arrive. Like SeqScan it returns the
+ * tuples in no particular order, but the order also differs from run to
+ * run.
+ * <p/>
+ * Each split hands its tuples over a page at a time through a bounded
+ * queue, so a slow consumer holds the splits back rather than letting them
+ * buffer the whole table. All splits run as part of the scan's
+ * transaction and lock their pages as a SeqScan would. Closing the scan
+ * cancels the splits and waits for them to stop, so that none of them
+ * takes a lock after the transaction completes.
+ *
+ * @see HeapFile#iterator(TransactionId, int, int)
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Splits smaller than this are not worth a task of their own.
+     */
+    public static final int MIN_SPLIT_PAGES = 8;
+
+    // marks the end of one split in the queue
+    private static final ArrayList<Tuple> END = new ArrayList<Tuple>();
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final HeapFile file;
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    private LinkedBlockingQueue<ArrayList<Tuple>> queue = null;
+    private ScanState state = null;
+    private ArrayList<Split> splits = null;
+    private ArrayList<Tuple> batch = null;
+    private int batchPos = 0;
+    private int running = 0;
+
+    /**
+     * State shared by the splits of one open scan.
+     */
+    private static class ScanState {
+        volatile boolean cancelled = false;
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    }
+
+    /**
+     * Creates a parallel scan over the specified table that uses up to
+     * parallelism threads of pool.
+     *
+     * @param tid         The transaction this scan is running as a part of.
+     * @param tableid     the table to scan; must be a HeapFile
+     * @param tableAlias  the alias of this table, as for SeqScan
+     * @param pool        the pool the splits run on
+     * @param parallelism the number of splits to scan at once
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+                           ForkJoinPool pool, int parallelism) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile)) {
+            throw new IllegalArgumentException("only HeapFiles can be scanned in parallel");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.file = (HeapFile) f;
+        this.pool = pool;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Creates a parallel scan that uses every thread of the common pool.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, ForkJoinPool.commonPool(),
+                ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * Splits pages [0, numPages) into at most parallelism ranges of at
+     * least MIN_SPLIT_PAGES pages each, except when there are fewer pages.
+     *
+     * @return the first page of each range, followed by the end of the last
+     */
+    static int[] splitPoints(int numPages, int parallelism) {
+        int splits = Math.max(1, Math.min(parallelism, numPages / MIN_SPLIT_PAGES));
+        int[] points = new int[splits + 1];
+        for (int i = 0; i <= splits; i++) {
+            points[i] = (int) ((long) numPages * i / splits);
+        }
+        return points;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * table alias, as for SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            names[i] = tableAlias + "." + td.getFieldName(i);
+            types[i] = td.getFieldType(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        int[] points = splitPoints(file.numPages(), parallelism);
+        running = points.length - 1;
+        queue = new LinkedBlockingQueue<ArrayList<Tuple>>(4 * running);
+        state = new ScanState();
+        splits = new ArrayList<Split>(running);
+        batch = null;
+        batchPos = 0;
+        for (int i = 0; i < running; i++) {
+            Split split = new Split(points[i], points[i + 1], queue, state);
+            splits.add(split);
+            pool.execute(split);
+        }
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (batch == null || batchPos >= batch.size()) {
+            if (running == 0) {
+                return null;
+            }
+            ArrayList<Tuple> b;
+            try {
+                b = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for a split");
+            }
+            if (b == END) {
+                running--;
+                rethrow();
+            } else {
+                batch = b;
+                batchPos = 0;
+            }
+        }
+        return batch.get(batchPos++);
+    }
+
+    /**
+     * Rethrows the first failure of any split.
+     */
+    private void rethrow() throws TransactionAbortedException, DbException {
+        Exception e = state.error.get();
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof DbException) {
+            throw (DbException) e;
+        } else if (e != null) {
+            throw new DbException("split failed: " + e);
+        }
+    }
+
+    /**
+     * Cancels the splits and waits for them to stop. A split waiting for a
+     * page lock stops once it is granted, and the lock is released with the
+     * transaction's other locks.
+     */
+    public void close() {
+        super.close();
+        if (state != null) {
+            state.cancelled = true;
+            // unblock splits waiting for room
+            queue.clear();
+            for (Split split : splits) {
+                split.quietlyJoin();
+            }
+        }
+        queue = null;
+        state = null;
+        splits = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        // a scan has no children
+    }
+
+    /**
+     * Scans pages [start, end) and queues their tuples a page at a time.
+     */
+    private class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final LinkedBlockingQueue<ArrayList<Tuple>> out;
+        private final ScanState st;
+
+        Split(int start, int end, LinkedBlockingQueue<ArrayList<Tuple>> out, ScanState st) {
+            this.start = start;
+            this.end = end;
+            this.out = out;
+            this.st = st;
+        }
+
+        protected void compute() {
+            DbFileIterator it = file.iterator(tid, start, end);
+            try {
+                it.open();
+                ArrayList<Tuple> page = new ArrayList<Tuple>();
+                PageId current = null;
+                while (!st.cancelled && it.hasNext()) {
+                    Tuple t = it.next();
+                    PageId pid = t.getRecordId().getPageId();
+                    if (current != null && !pid.equals(current) && !page.isEmpty()) {
+                        put(page);
+                        page = new ArrayList<Tuple>();
+                    }
+                    current = pid;
+                    page.add(t);
+                }
+                if (!page.isEmpty()) {
+                    put(page);
+                }
+            } catch (Exception e) {
+                st.error.compareAndSet(null, e);
+            } finally {
+                it.close();
+                put(END);
+            }
+        }
+
+        /**
+         * Queues a batch, letting the pool add a thread while this one
+         * waits for room so that other splits keep running.
+         */
+        private void put(final ArrayList<Tuple> b) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    public boolean block() throws InterruptedException {
+                        while (!st.cancelled && !out.offer(b, 10, TimeUnit.MILLISECONDS)) {
+                            // wait for the consumer, or for close
+                        }
+                        return true;
+                    }
+
+                    public boolean isReleasable() {
+                        return st.cancelled || out.remainingCapacity() > 0 && out.offer(b);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
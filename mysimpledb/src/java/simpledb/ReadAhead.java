@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.concurrent.Future;
+
+/**
+ * ReadAhead watches the pages a single scan asks for and, once the scan is
+ * seen to be sequential, has the BufferPool read the next window of pages
+ * in the background with one large read, so the scan finds them resident.
+ * <p/>
+ * The window adapts to the scan: if the scan reaches a page whose
+ * prefetch has not finished yet, the scan is outrunning the read-ahead and
+ * the window doubles. If a prefetched page was already evicted again by the
+ * time the scan reached it, the scan is slower than the pool's turnover and
+ * the window halves. Any non-sequential request resets the window.
+ * <p/>
+ * Scans of fewer than {@link #MIN_TABLE_PAGES} pages are not read ahead;
+ * they are cheap and stay cached after the first pass anyway.
+ *
+ * @see BufferPool#prefetch
+ */
+public class ReadAhead {
+
+    public static final int MIN_TABLE_PAGES = 64;
+    public static final int INITIAL_WINDOW = 4;
+    public static final int MAX_WINDOW = 64;
+
+    private final HeapFile file;
+    private final BufferPool bp;
+    private final int startPage;
+    private final int endPage;
+    private final int maxWindow;
+    private final BufferRing ring;
+
+    private int window;
+    private int lastPgno = -2;
+    // pages [prefetchStart, prefetchEnd) were last requested from the pool
+    private int prefetchStart = 0;
+    private int prefetchEnd = 0;
+    private Future<?> pending = null;
+
+    /**
+     * @param file     the file being scanned
+     * @param numPages the number of pages in the file when the scan started
+     * @param ring     the scan's ring, or null if it uses the main pool
+     */
+    public ReadAhead(HeapFile file, int numPages, BufferRing ring) {
+        this(file, 0, numPages, ring);
+    }
+
+    /**
+     * @param file      the file being scanned
+     * @param startPage the first page the scan reads
+     * @param endPage   the page after the last one the scan reads
+     * @param ring      the scan's ring, or null if it uses the main pool
+     */
+    public ReadAhead(HeapFile file, int startPage, int endPage, BufferRing ring) {
+        this.file = file;
+        this.bp = Database.getBufferPool();
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.ring = ring;
+        // never let one scan's read-ahead take over the whole pool, or
+        // recycle ring frames the scan has not reached yet
+        int limit = ring == null ? bp.getNumPages() / 4 : ring.size() / 2;
+        this.maxWindow = Math.max(1, Math.min(MAX_WINDOW, limit));
+        this.window = Math.min(INITIAL_WINDOW, maxWindow);
+    }
+
+    /**
+     * @return the number of pages currently read ahead at a time
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Called by the scan before it fetches page pgno.
+     */
+    public void pageRequested(int pgno) {
+        if (endPage - startPage < MIN_TABLE_PAGES) {
+            return;
+        }
+        if (pgno != lastPgno + 1) {
+            lastPgno = pgno;
+            window = Math.min(INITIAL_WINDOW, maxWindow);
+            prefetchStart = prefetchEnd = pgno + 1;
+            pending = null;
+            return;
+        }
+        lastPgno = pgno;
+        if (pgno >= prefetchStart && pgno < prefetchEnd
+                && !bp.isCached(new HeapPageId(file.getId(), pgno))) {
+            if (pending != null && !pending.isDone()) {
+                window = Math.min(window * 2, maxWindow);
+            } else {
+                window = Math.max(window / 2, 1);
+            }
+        }
+        // keep at least half a window ahead of the scan
+        if (pgno + window / 2 >= prefetchEnd && prefetchEnd < endPage) {
+            int start = Math.max(pgno + 1, prefetchEnd);
+            int count = Math.min(window, endPage - start);
+            if (count > 0) {
+                pending = bp.prefetch(file, start, count, ring);
+                prefetchStart = start;
+                prefetchEnd = start + count;
+            }
+        }
+    }
+}
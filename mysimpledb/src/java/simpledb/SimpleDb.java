@@ -6,7 +6,7 @@ public class SimpleDb {
     public static void main(String args[])
             throws DbException, TransactionAbortedException, IOException {
         // convert a file
-        if (args[0].equals("convert")) {
+        if (args[0].equals("convert") || args[0].equals("convert-slotted")) {
             try {
                 if (args.length < 3 || args.length > 5) {
                     System.err.println("Unexpected number of arguments to convert ");
@@ -43,8 +43,12 @@ public class SimpleDb {
                         fieldSeparator = args[4].charAt(0);
                 }
 
-                HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                        BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                if (args[0].equals("convert-slotted"))
+                    SlottedHeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                            BufferPool.getPageSize(), ts, fieldSeparator);
+                else
+                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
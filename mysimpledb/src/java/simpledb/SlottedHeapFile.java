@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedHeapPage}s,
+ * which store strings in as many bytes as they take rather than padded to
+ * Type.STRING_LEN, so a table of short strings takes fewer pages. The
+ * file is otherwise a HeapFile: pages are still of the BufferPool's page
+ * size, and a file of zeroes still reads as empty pages.
+ * <p/>
+ * A table is stored this way if its catalog line has the "slotted"
+ * option; its data file must have been written by
+ * {@link SlottedHeapFileEncoder}.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * @param mapped whether to memory-map the file
+     */
+    public SlottedHeapFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, getTupleDesc(), data);
+    }
+
+    TuplePage newPage(HeapPageId pid, ByteBuffer frame) throws IOException {
+        // a slotted page keeps its bytes in an array of its own
+        byte[] data = new byte[frame.remaining()];
+        frame.duplicate().get(data);
+        return newPage(pid, data);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * SlottedHeapFileEncoder is the HeapFileEncoder of {@link SlottedHeapFile}s:
+ * it reads a delimited text file, or accepts a list of tuples, and writes
+ * them out as {@link SlottedHeapPage}s. Each page takes as many tuples as
+ * fit in it at their actual size, so the number of tuples per page, and of
+ * pages, depends on the data.
+ */
+public class SlottedHeapFileEncoder {
+
+    /**
+     * Converts the specified tuple list (with only integer fields) into a
+     * binary page file.
+     *
+     * @param tuples     the tuples - a list of tuples, each represented by a list of integers that are
+     *                   the field values for that tuple.
+     * @param outFile    The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields  the number of fields in each input tuple
+     * @throws IOException if the output file can't be written
+     * @see SlottedHeapPage
+     */
+    public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields)
+            throws IOException {
+        Type[] typeAr = new Type[numFields];
+        for (int i = 0; i < numFields; i++) {
+            typeAr[i] = Type.INT_TYPE;
+        }
+        TupleDesc td = new TupleDesc(typeAr);
+        Writer w = new Writer(outFile, npagebytes, td);
+        try {
+            for (ArrayList<Integer> tuple : tuples) {
+                if (tuple.size() != numFields) {
+                    throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
+                            Utility.listToString(tuple) + ")");
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < numFields; i++) {
+                    t.setField(i, new IntField(tuple.get(i)));
+                }
+                w.add(t);
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Converts the specified input text file into a binary page file of
+     * slotted pages. Each line of the input is a tuple whose fields, of
+     * the types in typeAr, are separated by fieldSeparator; strings longer
+     * than Type.STRING_LEN are cut off, and integers that do not parse are
+     * reported and stored as 0.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param typeAr         The types of the fields of each line
+     * @param fieldSeparator The character between the fields of a line
+     * @throws IOException if the input/output file can't be opened or a
+     *                     line has the wrong number of fields
+     * @see SlottedHeapPage
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               Type[] typeAr, char fieldSeparator) throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        Writer w = new Writer(outFile, npagebytes, td);
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().equals("")) {
+                    continue;
+                }
+                String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                if (values.length != typeAr.length) {
+                    throw new IOException("line has " + values.length + " fields, not " + typeAr.length + ": " + line);
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < typeAr.length; i++) {
+                    String s = values[i].trim();
+                    if (typeAr[i] == Type.INT_TYPE) {
+                        int v = 0;
+                        try {
+                            v = Integer.parseInt(s);
+                        } catch (NumberFormatException e) {
+                            System.out.println("BAD LINE : " + s);
+                        }
+                        t.setField(i, new IntField(v));
+                    } else {
+                        t.setField(i, new StringField(s, Type.STRING_LEN));
+                    }
+                }
+                w.add(t);
+            }
+        } finally {
+            br.close();
+            w.close();
+        }
+    }
+
+    /**
+     * Fills a page at a time and writes each out once the next tuple does
+     * not fit. An empty input still gets one empty page, as with
+     * HeapFileEncoder.
+     */
+    private static class Writer {
+        private final OutputStream os;
+        private final int npagebytes;
+        private final TupleDesc td;
+        private SlottedHeapPage page;
+        private int npages = 0;
+
+        Writer(File outFile, int npagebytes, TupleDesc td) throws IOException {
+            this.os = new BufferedOutputStream(new FileOutputStream(outFile));
+            this.npagebytes = npagebytes;
+            this.td = td;
+            this.page = emptyPage();
+        }
+
+        private SlottedHeapPage emptyPage() throws IOException {
+            // the page is never in the catalog, so its table id is moot
+            return new SlottedHeapPage(new HeapPageId(0, npages), td, new byte[npagebytes]);
+        }
+
+        void add(Tuple t) throws IOException {
+            try {
+                if (!page.hasRoomFor(t)) {
+                    if (page.isEmpty()) {
+                        throw new IOException("tuple does not fit on a page: " + t);
+                    }
+                    flush();
+                }
+                page.insertTuple(t);
+            } catch (DbException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        private void flush() throws IOException {
+            byte[] data = new byte[npagebytes];
+            page.writePageData(ByteBuffer.wrap(data));
+            os.write(data);
+            npages++;
+            page = emptyPage();
+        }
+
+        void close() throws IOException {
+            try {
+                if (!page.isEmpty() || npages == 0) {
+                    flush();
+                }
+            } finally {
+                os.close();
+            }
+        }
+    }
+}
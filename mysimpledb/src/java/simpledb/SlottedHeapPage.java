@@ -0,0 +1,397 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is the page of a {@link SlottedHeapFile}. Unlike a
+ * HeapPage, whose slots all take the fixed size of the TupleDesc, it
+ * stores each tuple in as many bytes as its values take: a string is a
+ * two-byte length followed by its characters in ISO-8859-1, rather than
+ * Type.STRING_LEN + 4 bytes. A page holds as many tuples as fit.
+ * <p/>
+ * The page starts with a two-byte count of slots and the two-byte offset
+ * of the first tuple byte, followed by the slot directory: a two-byte
+ * offset and a two-byte length per slot, with offset 0 for an empty slot.
+ * The tuples are packed against the end of the page, the tuple of slot 0
+ * last. A page of zeroes is an empty page.
+ * <p/>
+ * A tuple keeps its slot, and so its RecordId, while it is on the page,
+ * but its bytes may move: the tuples are packed again every time the page
+ * is written, so space freed by a delete is reused without compaction.
+ * Like a HeapPage, the page keeps the bytes it was created from as its
+ * before image, and decodes a tuple from them the first time it is asked
+ * for.
+ *
+ * @see SlottedHeapFile
+ * @see SlottedHeapFileEncoder
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+    // offsets and lengths take two bytes each
+    static final int MAX_PAGE_SIZE = 0xffff;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+    // the smallest number of bytes a tuple of td can take
+    private final int minTupleSize;
+    private volatile TransactionId dirtier = null;
+
+    // all state below is guarded by this
+
+    // the page as of its last setBeforeImage; it is replaced, never changed
+    private byte[] raw;
+    private ByteBuffer rawBuf;
+    // per slot: the tuple, once decoded or inserted
+    private Tuple[] tuples;
+    // per slot: the offset of the tuple in raw, if it is there
+    private int[] offsets;
+    // per slot: the length of the tuple, or 0 for an empty slot
+    private int[] lengths;
+    // slots in the directory: the last used slot + 1
+    private int numSlots = 0;
+    // the total length of the tuples on the page
+    private int dataBytes = 0;
+
+    /**
+     * Creates a SlottedHeapPage from the bytes of a page read from disk.
+     * The page keeps data, which must not be changed afterwards, as its
+     * before image.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Creates a SlottedHeapPage of a table with the given TupleDesc; the
+     * page is as long as data.
+     */
+    SlottedHeapPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        if (data.length > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages hold at most " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.pid = id;
+        this.td = td;
+        this.pageSize = data.length;
+        int min = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            min += td.getFieldType(j) == Type.STRING_TYPE ? 2 : td.getFieldType(j).getLen();
+        }
+        this.minTupleSize = min;
+        this.raw = data;
+        this.rawBuf = ByteBuffer.wrap(data);
+
+        int slots = rawBuf.getShort(0) & 0xffff;
+        if (HEADER_SIZE + slots * SLOT_SIZE > pageSize) {
+            throw new IOException("bad slot count " + slots + " on " + pid);
+        }
+        tuples = new Tuple[Math.max(slots, 8)];
+        offsets = new int[tuples.length];
+        lengths = new int[tuples.length];
+        for (int i = 0; i < slots; i++) {
+            int off = rawBuf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            int len = rawBuf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+            if (off == 0) {
+                continue;
+            }
+            if (off + len > pageSize || len < minTupleSize) {
+                throw new IOException("bad slot " + i + " on " + pid);
+            }
+            offsets[i] = off;
+            lengths[i] = len;
+            dataBytes += len;
+            numSlots = i + 1;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of bytes t takes on a slotted page
+     */
+    static int sizeOf(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (f.getType() == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += f.getType().getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes t to dst in the format of a slotted page.
+     */
+    static void writeTuple(ByteBuffer dst, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (f.getType() == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                dst.putShort((short) len);
+                // one byte per char, so len is the length in bytes too
+                dst.put(s.substring(0, len).getBytes(StandardCharsets.ISO_8859_1));
+            } else {
+                f.serialize(dst);
+            }
+        }
+    }
+
+    /**
+     * Returns the tuple in slot i, decoding it from raw the first time it
+     * is asked for, or null if the slot is empty.
+     */
+    private synchronized Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && lengths[i] > 0) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            int pos = offsets[i];
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.STRING_TYPE) {
+                    int len = rawBuf.getShort(pos) & 0xffff;
+                    t.setField(j, new StringField(
+                            new String(raw, pos + 2, len, StandardCharsets.ISO_8859_1), Type.STRING_LEN));
+                    pos += 2 + len;
+                } else {
+                    try {
+                        t.setField(j, type.parse(rawBuf, pos));
+                    } catch (java.text.ParseException e) {
+                        e.printStackTrace();
+                        throw new NoSuchElementException("parsing error!");
+                    }
+                    pos += type.getLen();
+                }
+            }
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public synchronized int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] > 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of bytes on this page not taken by the header,
+     * the slot directory or tuples
+     */
+    public synchronized int getFreeSpace() {
+        return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - dataBytes;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0) {
+                return i;
+            }
+        }
+        return numSlots;
+    }
+
+    /**
+     * @return whether a tuple of size bytes fits
+     */
+    private boolean fits(int size) {
+        int slot = firstEmptySlot() < numSlots ? 0 : SLOT_SIZE;
+        return getFreeSpace() >= size + slot;
+    }
+
+    public synchronized boolean hasRoomFor(Tuple t) {
+        return fits(sizeOf(t));
+    }
+
+    public synchronized boolean isFull() {
+        return !fits(minTupleSize);
+    }
+
+    public synchronized boolean isEmpty() {
+        return numSlots == 0;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc does not match");
+        }
+        boolean full;
+        synchronized (this) {
+            int size = sizeOf(t);
+            if (!fits(size)) {
+                throw new DbException("no room for tuple");
+            }
+            int i = firstEmptySlot();
+            if (i == tuples.length) {
+                int n = tuples.length * 2;
+                tuples = Arrays.copyOf(tuples, n);
+                offsets = Arrays.copyOf(offsets, n);
+                lengths = Arrays.copyOf(lengths, n);
+            }
+            tuples[i] = t;
+            offsets[i] = 0;
+            lengths[i] = size;
+            dataBytes += size;
+            numSlots = Math.max(numSlots, i + 1);
+            t.setRecordId(new RecordId(pid, i));
+            full = !fits(minTupleSize);
+        }
+        if (full) {
+            HeapFile.noteFreeSpace(pid, false);
+        }
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple not found");
+        }
+        deleteTuple(t.getRecordId());
+    }
+
+    public void deleteTuple(RecordId rid) throws DbException {
+        if (!pid.equals(rid.getPageId())) {
+            throw new DbException("tuple not found");
+        }
+        synchronized (this) {
+            int i = rid.tupleno();
+            if (i < 0 || i >= numSlots || lengths[i] == 0) {
+                throw new DbException("slot already empty");
+            }
+            dataBytes -= lengths[i];
+            tuples[i] = null;
+            offsets[i] = 0;
+            lengths[i] = 0;
+            while (numSlots > 0 && lengths[numSlots - 1] == 0) {
+                numSlots--;
+            }
+        }
+        HeapFile.noteFreeSpace(pid, true);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Writes the page into dst, packing the tuples against its end. Tuples
+     * that were never decoded are copied from raw as they are.
+     */
+    public synchronized void writePageData(ByteBuffer dst) {
+        int start = pageSize - dataBytes;
+        dst.putShort((short) numSlots);
+        dst.putShort((short) (numSlots == 0 ? 0 : start));
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0) {
+                dst.putInt(0);
+            } else {
+                end -= lengths[i];
+                dst.putShort((short) end);
+                dst.putShort((short) lengths[i]);
+            }
+        }
+        for (int k = HEADER_SIZE + numSlots * SLOT_SIZE; k < start; k++) {
+            dst.put((byte) 0);
+        }
+        // slot 0 is last, so the tuples go in in reverse
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (lengths[i] == 0) {
+                continue;
+            }
+            if (tuples[i] == null) {
+                dst.put(raw, offsets[i], lengths[i]);
+            } else {
+                writeTuple(dst, tuples[i]);
+            }
+        }
+    }
+
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] before;
+            synchronized (this) {
+                before = raw;
+            }
+            return new SlottedHeapPage(pid, td, before);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public synchronized void setBeforeImage() {
+        raw = getPageData();
+        rawBuf = ByteBuffer.wrap(raw);
+        // every tuple now sits where writePageData put it
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] > 0) {
+                end -= lengths[i];
+                offsets[i] = end;
+            }
+        }
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+
+            public boolean hasNext() {
+                synchronized (SlottedHeapPage.this) {
+                    while (slot < numSlots && lengths[slot] == 0) {
+                        slot++;
+                    }
+                    return slot < numSlots;
+                }
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("does not have next");
+                }
+                return tuple(slot++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("not implemented");
+            }
+        };
+    }
+}
@@ -9,6 +9,8 @@ import java.util.*;
 public class TupleDesc implements Serializable {
 
 	private TDItem[] fields;
+	// offset of each field within a serialized tuple; computed on first use
+	private transient int[] offsets;
     /**
      * A help class to facilitate organizing the information of each field
      */
@@ -135,6 +137,26 @@ public class TupleDesc implements Serializable {
         return sum;
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field within a serialized
+     * tuple of this TupleDesc.
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+    	if(i < 0 || i >= this.fields.length){
+    		throw new NoSuchElementException();
+    	}
+    	int[] off = this.offsets;
+    	if(off == null){
+    		off = new int[this.fields.length];
+    		for(int j = 1; j < off.length; j++){
+    			off[j] = off[j-1] + this.fields[j-1].fieldType.getLen();
+    		}
+    		this.offsets = off;
+    	}
+    	return off[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
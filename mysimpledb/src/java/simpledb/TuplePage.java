@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile: a Page that holds tuples. A
+ * {@link HeapPage} stores tuples of the fixed size of their TupleDesc in
+ * an array of slots; a {@link SlottedHeapPage} stores each tuple in as
+ * many bytes as its values take.
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page, and sets its RecordId to where
+     * it was put.
+     *
+     * @throws DbException if the page has no room for t, or its TupleDesc
+     *                     does not match
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the tuple with the given RecordId from the page.
+     *
+     * @throws DbException if rid is not on this page, or its slot is empty
+     */
+    public void deleteTuple(RecordId rid) throws DbException;
+
+    /**
+     * @return whether {@link #insertTuple} would find room for t
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return whether the page has no room for even the smallest tuple of
+     * its table
+     */
+    public boolean isFull();
+
+    /**
+     * @return whether the page holds no tuples
+     */
+    public boolean isEmpty();
+
+    /**
+     * @return an iterator over the tuples on this page; remove is not
+     * supported
+     */
+    public Iterator<Tuple> iterator();
+}
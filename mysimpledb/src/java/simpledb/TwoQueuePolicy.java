@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Newly read pages enter a FIFO queue
+ * A1in; only a page that is referenced again after falling out of A1in is
+ * promoted to the LRU-managed main queue Am. A1out remembers the ids of
+ * recently evicted A1in pages (but not their contents) to recognize such
+ * second references. A one-time scan therefore only cycles through A1in and
+ * leaves the hot pages in Am alone.
+ *
+ * @Threadsafe
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    private PageId[] framePages = new PageId[0];
+    private int maxIn = 1;
+    private int maxOut = 1;
+
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();
+    private final LinkedHashMap<Integer, Integer> am =
+            new LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+
+    public synchronized void setNumFrames(int numFrames) {
+        PageId[] newPages = new PageId[numFrames];
+        System.arraycopy(framePages, 0, newPages, 0, Math.min(numFrames, framePages.length));
+        framePages = newPages;
+        maxIn = Math.max(1, numFrames / 4);
+        maxOut = Math.max(1, numFrames / 2);
+        Iterator<Integer> it = a1in.iterator();
+        while (it.hasNext()) {
+            if (it.next() >= numFrames) {
+                it.remove();
+            }
+        }
+        it = am.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next() >= numFrames) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void recordLoad(int frame, PageId pid) {
+        framePages[frame] = pid;
+        if (a1out.remove(pid)) {
+            am.put(frame, frame);
+        } else {
+            a1in.add(frame);
+        }
+    }
+
+    public synchronized void recordAccess(int frame) {
+        // hits in A1in are deliberately ignored; they are likely correlated
+        am.get(frame);
+    }
+
+    public synchronized void recordRemoval(int frame) {
+        if (a1in.remove(frame)) {
+            a1out.add(framePages[frame]);
+            if (a1out.size() > maxOut) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(frame);
+        }
+        framePages[frame] = null;
+    }
+
+    public synchronized int chooseVictim(Evictable evictable) {
+        int victim;
+        if (a1in.size() > maxIn) {
+            victim = firstEvictable(a1in, evictable);
+            if (victim == -1) {
+                victim = firstEvictable(am.keySet(), evictable);
+            }
+        } else {
+            victim = firstEvictable(am.keySet(), evictable);
+            if (victim == -1) {
+                victim = firstEvictable(a1in, evictable);
+            }
+        }
+        return victim;
+    }
+
+    private static int firstEvictable(Iterable<Integer> queue, Evictable evictable) {
+        for (Integer frame : queue) {
+            if (evictable.canEvict(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
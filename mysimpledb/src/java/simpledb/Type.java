@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +52,25 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, offset);
+                }
+                byte bs[] = new byte[strLen];
+                ByteBuffer src = buf.duplicate();
+                src.position(offset + 4);
+                src.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -60,4 +89,14 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @param buf    The buffer to read from; its position is not changed
+     * @param offset The index in buf at which the field starts
+     * @return a Field object of the same type as this object that has contents
+     * read from buf at offset.
+     * @throws ParseException if the bytes at offset are not of the
+     *                        appropriate type.
+     */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Vacuum compacts a HeapFile whose pages were thinned out by deletes. It
+ * moves live tuples from the last pages of the file into empty slots of
+ * earlier pages, and then cuts the emptied pages off the end of the file,
+ * so that scans only read as many pages as the live tuples need.
+ * <p/>
+ * The work is done in small steps, each its own transaction, so a vacuum
+ * can run alongside other transactions: a step locks the pages it changes
+ * through the BufferPool like any writer, its changes are logged when its
+ * pages are flushed at commit, and a step that loses a deadlock is rolled
+ * back and simply tried again later. A moved tuple gets a new RecordId.
+ * <p/>
+ * A Vacuum can be run a step at a time with {@link #step(int)}, or
+ * started as a background thread that keeps taking steps until the file
+ * is compact and then checks back every intervalMillis.
+ *
+ * @Threadsafe
+ */
+public class Vacuum extends Thread {
+
+    public static final int DEFAULT_TUPLES_PER_STEP = 1000;
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final HeapFile file;
+
+    private volatile int tuplesPerStep = DEFAULT_TUPLES_PER_STEP;
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile boolean running = true;
+
+    private volatile long tuplesMoved = 0;
+    private volatile long pagesTruncated = 0;
+
+    /**
+     * @param file the file to compact
+     */
+    public Vacuum(HeapFile file) {
+        super("Vacuum");
+        this.file = file;
+        setDaemon(true);
+    }
+
+    /**
+     * Sets the number of tuples moved per step, and so per transaction.
+     */
+    public void setTuplesPerStep(int tuples) {
+        if (tuples < 1) {
+            throw new IllegalArgumentException("a step must move at least one tuple");
+        }
+        tuplesPerStep = tuples;
+    }
+
+    /**
+     * Sets how long the background thread waits before looking at a file
+     * it found compact again.
+     */
+    public void setIntervalMillis(long millis) {
+        intervalMillis = millis;
+    }
+
+    /**
+     * @return the number of tuples moved so far
+     */
+    public long getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /**
+     * @return the number of pages cut off the file so far
+     */
+    public long getPagesTruncated() {
+        return pagesTruncated;
+    }
+
+    /**
+     * Moves up to maxTuples tuples from the end of the file to earlier
+     * pages in one transaction, and then cuts off the empty pages at the
+     * end of the file in another.
+     *
+     * @return true if there may be more to move, false if the file is
+     * compact
+     * @throws TransactionAbortedException if either transaction was chosen
+     *                                     as a deadlock victim; it has been
+     *                                     rolled back
+     */
+    public synchronized boolean step(int maxTuples)
+            throws DbException, IOException, TransactionAbortedException {
+        boolean more = move(maxTuples);
+        truncate();
+        return more;
+    }
+
+    private boolean move(int maxTuples) throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        TransactionId tid = t.getId();
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = file.freeSpaceMap();
+        int moved = 0;
+        boolean more = true;
+        boolean committed = false;
+        try {
+            int last = file.numPages() - 1;
+            while (more && moved < maxTuples && last > 0) {
+                TuplePage src = (TuplePage) bp.getPage(tid, new HeapPageId(file.getId(), last), Permissions.READ_WRITE);
+                ArrayList<Tuple> live = new ArrayList<Tuple>();
+                Iterator<Tuple> it = src.iterator();
+                while (it.hasNext()) {
+                    live.add(it.next());
+                }
+                for (Tuple tuple : live) {
+                    if (moved == maxTuples) {
+                        break;
+                    }
+                    TuplePage dst = pageWithRoomBefore(tid, fsm, last, tuple);
+                    if (dst == null) {
+                        more = false;
+                        break;
+                    }
+                    Tuple copy = new Tuple(tuple.getTupleDesc());
+                    for (int i = 0; i < copy.getTupleDesc().numFields(); i++) {
+                        copy.setField(i, tuple.getField(i));
+                    }
+                    dst.insertTuple(copy);
+                    src.deleteTuple(tuple);
+                    ArrayList<Page> dirtied = new ArrayList<Page>();
+                    dirtied.add(dst);
+                    dirtied.add(src);
+                    bp.markDirtied(tid, dirtied);
+                    moved++;
+                }
+                if (src.isEmpty()) {
+                    last--;
+                }
+            }
+            if (last <= 0) {
+                more = false;
+            }
+            t.commit();
+            committed = true;
+        } finally {
+            // whatever went wrong, the step's changes must not stay
+            if (!committed) {
+                t.abort();
+            }
+        }
+        tuplesMoved += moved;
+        return more;
+    }
+
+    /**
+     * @return a write-locked page numbered below end that has room for t,
+     * or null if there is none
+     */
+    private TuplePage pageWithRoomBefore(TransactionId tid, FreeSpaceMap fsm, int end, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int pgno = fsm.pageWithRoom();
+        while (pgno != -1 && pgno < end) {
+            TuplePage page = (TuplePage) bp.getPage(tid, new HeapPageId(file.getId(), pgno), Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
+                return page;
+            }
+            if (page.isFull()) {
+                fsm.setHasRoom(pgno, false);
+            }
+            pgno = fsm.pageWithRoom(pgno + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Cuts off the empty pages at the end of the file, in a transaction
+     * that holds write locks on them while they go.
+     */
+    private void truncate() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        TransactionId tid = t.getId();
+        BufferPool bp = Database.getBufferPool();
+        boolean committed = false;
+        try {
+            int old = file.numPages();
+            int end = old;
+            while (end > 1) {
+                TuplePage page = (TuplePage) bp.getPage(tid, new HeapPageId(file.getId(), end - 1), Permissions.READ_WRITE);
+                if (!page.isEmpty()) {
+                    break;
+                }
+                end--;
+            }
+            // the pool monitor goes before the file's, as HeapFile.truncate
+            // takes them
+            synchronized (bp) {
+                synchronized (file) {
+                    // pages appended since are not locked by us, and stay
+                    if (file.numPages() == old) {
+                        file.truncate(end);
+                        pagesTruncated += old - end;
+                    }
+                }
+            }
+            t.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                t.abort();
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread once its current step finishes, and
+     * waits for it.
+     */
+    public void shutdown() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() {
+        while (running) {
+            boolean more;
+            try {
+                more = step(tuplesPerStep);
+            } catch (TransactionAbortedException e) {
+                // lost a deadlock; try again after a pause
+                more = false;
+            } catch (Exception e) {
+                e.printStackTrace();
+                more = false;
+            }
+            if (!more) {
+                synchronized (this) {
+                    try {
+                        if (running) {
+                            wait(intervalMillis);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
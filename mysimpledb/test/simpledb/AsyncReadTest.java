@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class AsyncReadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 4 * 504, null, null);
+    }
+
+    @Test
+    public void readPageAsyncMatchesReadPage() throws Exception {
+        for (int pgno = 0; pgno < 5; pgno++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pgno);
+            Page page = hf.readPageAsync(pid).get();
+            assertEquals(pid, page.getId());
+            assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        }
+        // past the end of the file, like readPage
+        HeapPage past = (HeapPage) hf.readPageAsync(new HeapPageId(hf.getId(), 9)).get();
+        assertEquals(504, past.getNumEmptySlots());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneRead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ArrayList<CompletableFuture<Page>> futures = new ArrayList<CompletableFuture<Page>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(bp.getPageAsync(new TransactionId(), new HeapPageId(hf.getId(), 2),
+                    Permissions.READ_ONLY));
+        }
+        Page page = futures.get(0).get();
+        for (CompletableFuture<Page> f : futures) {
+            assertSame(page, f.get());
+        }
+        assertEquals(1, bp.getMissCount());
+        assertSame(page, bp.getPage(new TransactionId(), page.getId(), Permissions.READ_ONLY));
+    }
+
+    @Test
+    public void manyOutstandingReads() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        ArrayList<CompletableFuture<Page>> futures = new ArrayList<CompletableFuture<Page>>();
+        for (int pgno = 0; pgno < hf.numPages(); pgno++) {
+            futures.add(bp.getPageAsync(tid, new HeapPageId(hf.getId(), pgno), Permissions.READ_ONLY));
+        }
+        int tuples = 0;
+        for (CompletableFuture<Page> f : futures) {
+            tuples += 504 - ((HeapPage) f.get()).getNumEmptySlots();
+        }
+        assertEquals(4 * 504, tuples);
+        assertEquals(hf.numPages(), bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    @Test
+    public void failedInstallCompletesExceptionally() throws Exception {
+        BufferPool bp = Database.resetBufferPool(1);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY).markDirty(true, tid);
+        CompletableFuture<Page> f = bp.getPageAsync(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        try {
+            f.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DbException);
+        }
+    }
+
+    @Test
+    public void asyncReadsGoIntoFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, new LruPolicy(), true);
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) bp.getPageAsync(tid, pid, Permissions.READ_ONLY).get();
+        // as read by getPage, the page is over its frame
+        assertTrue(page.inFrame());
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        assertSame(page, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    @Test(timeout = 10000)
+    public void slowReadDoesNotHoldUpOtherPages() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TestUtil.SkeletonFile slow = new TestUtil.SkeletonFile(-8, Utility.getTupleDesc(1)) {
+            public Page readPage(PageId id) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return new EvictionPolicyTest.DirtyablePage(id);
+            }
+        };
+        Database.getCatalog().addTable(slow, "slow");
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final PageId slowPid = new HeapPageId(-8, 0);
+        final Page[] read = new Page[2];
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            final int n = i;
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        read[n] = bp.getPage(new TransactionId(), slowPid, Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            readers[i].setDaemon(true);
+            readers[i].start();
+            reading.await();
+        }
+
+        // other pages are read and served while the slow read is stuck
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(0, page.getNumEmptySlots());
+        assertSame(page, bp.getPage(tid, page.getId(), Permissions.READ_ONLY));
+
+        release.countDown();
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertNotNull(read[0]);
+        assertSame(read[0], read[1]);
+        assertEquals(2, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AsyncReadTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Microbenchmark for BufferPool.getPage on resident pages. Fills pools of
+ * increasing size with tiny stub pages and reports the average cost of a
+ * cached lookup, which should stay flat as the number of frames grows.
+ * <p/>
+ * Run with: java -cp bin/src:bin/test simpledb.BufferPoolLookupBenchmark
+ */
+public class BufferPoolLookupBenchmark {
+
+    private static final int[] POOL_SIZES = {50, 500, 5000, 50000, 100000};
+    private static final int LOOKUPS = 2000000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * A page that carries nothing but its id, so that 100k frames fit
+     * comfortably in the heap.
+     */
+    static class StubPage implements Page {
+        private final PageId pid;
+
+        StubPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return new byte[0];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /**
+     * A table of any number of stub pages.
+     */
+    static class StubFile extends TestUtil.SkeletonFile {
+        StubFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(1));
+        }
+
+        @Override
+        public Page readPage(PageId id) {
+            return new StubPage(id);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("frames\tns/lookup");
+        for (int size : POOL_SIZES) {
+            System.out.println(size + "\t" + String.format("%.1f", measure(size)));
+        }
+    }
+
+    private static double measure(int numPages)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.reset();
+        StubFile file = new StubFile(numPages);
+        Database.getCatalog().addTable(file, "bench" + numPages);
+        BufferPool bp = Database.resetBufferPool(numPages);
+        TransactionId tid = new TransactionId();
+
+        ArrayList<PageId> pids = new ArrayList<PageId>(numPages);
+        for (int i = 0; i < numPages; i++) {
+            PageId pid = new HeapPageId(file.getId(), i);
+            pids.add(pid);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+
+        // random probe order, precomputed so the loop only measures lookups
+        Random r = new Random(42);
+        PageId[] probes = new PageId[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            probes[i] = pids.get(r.nextInt(numPages));
+        }
+
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                bp.getPage(tid, probes[i], Permissions.READ_ONLY);
+            }
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, (double) elapsed / LOOKUPS);
+        }
+        bp.transactionComplete(tid);
+        return best;
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private static final int TABLE_A = -7;
+    private static final int TABLE_B = -8;
+
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        for (int tableId : new int[]{TABLE_A, TABLE_B}) {
+            Database.getCatalog().addTable(new TestUtil.SkeletonFile(tableId, Utility.getTupleDesc(1)) {
+                public Page readPage(PageId id) {
+                    return new EvictionPolicyTest.DirtyablePage(id);
+                }
+            }, SystemTestUtil.getUUID());
+        }
+        tid = new TransactionId();
+    }
+
+    private Page read(BufferPool bp, int tableId, int pgno) throws Exception {
+        return bp.getPage(tid, new HeapPageId(tableId, pgno), Permissions.READ_ONLY);
+    }
+
+    private int cached(BufferPool bp, int tableId, int numPages) {
+        int cached = 0;
+        for (int i = 0; i < numPages; i++) {
+            if (bp.isCached(new HeapPageId(tableId, i))) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+
+    @Test
+    public void growAddsFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        for (int i = 0; i < 4; i++) {
+            read(bp, TABLE_A, i);
+        }
+        bp.resize(8);
+        assertEquals(8, bp.getNumPages());
+        for (int i = 4; i < 8; i++) {
+            read(bp, TABLE_A, i);
+        }
+        assertEquals(8, cached(bp, TABLE_A, 8));
+        assertEquals(8, bp.getMissCount());
+    }
+
+    @Test
+    public void shrinkEvictsAndKeepsDirtyAndPinnedPages() throws Exception {
+        for (EvictionPolicy policy : new EvictionPolicy[]{new LruPolicy(), new ClockPolicy(),
+                new LruKPolicy(), new TwoQueuePolicy()}) {
+            BufferPool bp = Database.resetBufferPool(6, policy);
+            for (int i = 0; i < 6; i++) {
+                read(bp, TABLE_A, i);
+            }
+            Page dirty = read(bp, TABLE_A, 5);
+            dirty.markDirty(true, tid);
+            assertTrue(bp.pinPage(new HeapPageId(TABLE_A, 4)));
+
+            bp.resize(3);
+            assertEquals(3, bp.getNumPages());
+            assertEquals(3, cached(bp, TABLE_A, 6));
+            assertSame(dirty, read(bp, TABLE_A, 5));
+            assertTrue(bp.isCached(new HeapPageId(TABLE_A, 4)));
+            bp.unpinPage(new HeapPageId(TABLE_A, 4));
+
+            // the pool still works at its new size
+            for (int i = 0; i < 6; i++) {
+                read(bp, TABLE_A, i);
+            }
+            assertEquals(3, cached(bp, TABLE_A, 6));
+
+            assertTrue(bp.pinPage(new HeapPageId(TABLE_A, 3)));
+            assertTrue(bp.pinPage(new HeapPageId(TABLE_A, 4)));
+            try {
+                bp.resize(1);
+                fail("expected DbException");
+            } catch (DbException e) {
+                // expected: only pinned and dirty pages are left
+            }
+        }
+    }
+
+    @Test
+    public void offHeapPoolResizes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4, new LruPolicy(), true);
+        SystemTestUtil.matchTuples(f, tuples);
+        bp.resize(8);
+        SystemTestUtil.matchTuples(f, tuples);
+        bp.resize(2);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test
+    public void maxQuotaConfinesTable() throws Exception {
+        BufferPool bp = Database.resetBufferPool(6);
+        for (int i = 0; i < 3; i++) {
+            read(bp, TABLE_B, i);
+        }
+        bp.setTableQuota(TABLE_A, 0, 2);
+        for (int i = 0; i < 10; i++) {
+            read(bp, TABLE_A, i);
+            assertTrue(bp.getResidentPages(TABLE_A) <= 2);
+        }
+        assertEquals(3, cached(bp, TABLE_B, 3));
+
+        // lowering the maximum trims the table right away
+        bp.setTableQuota(TABLE_A, 0, 1);
+        assertEquals(1, bp.getResidentPages(TABLE_A));
+
+        bp.clearTableQuota(TABLE_A);
+        for (int i = 0; i < 10; i++) {
+            read(bp, TABLE_A, i);
+        }
+        assertEquals(6, bp.getResidentPages(TABLE_A));
+    }
+
+    @Test
+    public void minQuotaReservesFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(6);
+        bp.setTableQuota(TABLE_B, 3, 6);
+        for (int i = 0; i < 3; i++) {
+            read(bp, TABLE_B, i);
+        }
+        for (int i = 0; i < 20; i++) {
+            read(bp, TABLE_A, i);
+        }
+        assertEquals(3, cached(bp, TABLE_B, 3));
+        assertEquals(3, bp.getResidentPages(TABLE_A));
+    }
+
+    @Test
+    public void inconsistentQuotasAreRejected() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        try {
+            bp.setTableQuota(TABLE_A, 3, 2);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        bp.setTableQuota(TABLE_A, 3, 4);
+        try {
+            bp.setTableQuota(TABLE_B, 2, 4);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            bp.resize(2);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
@@ -0,0 +1,218 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Evictable ALL = new EvictionPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            return true;
+        }
+    };
+
+    private static final EvictionPolicy.Evictable NONE = new EvictionPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            return false;
+        }
+    };
+
+    private static EvictionPolicy[] allPolicies() {
+        return new EvictionPolicy[]{new LruPolicy(), new ClockPolicy(),
+                new LruKPolicy(), new TwoQueuePolicy()};
+    }
+
+    /**
+     * Replays a trace of page numbers against a policy managing numFrames
+     * frames, and returns the number of hits.
+     */
+    private static int replay(EvictionPolicy policy, int numFrames, int[] trace) {
+        policy.setNumFrames(numFrames);
+        HashMap<Integer, Integer> resident = new HashMap<Integer, Integer>();
+        int[] framePages = new int[numFrames];
+        LinkedList<Integer> free = new LinkedList<Integer>();
+        for (int i = 0; i < numFrames; i++) {
+            free.add(i);
+        }
+        int hits = 0;
+        for (int pgno : trace) {
+            Integer frame = resident.get(pgno);
+            if (frame != null) {
+                hits++;
+                policy.recordAccess(frame);
+                continue;
+            }
+            if (free.isEmpty()) {
+                int victim = policy.chooseVictim(ALL);
+                assertTrue(victim >= 0);
+                resident.remove(framePages[victim]);
+                policy.recordRemoval(victim);
+                free.add(victim);
+            }
+            frame = free.removeFirst();
+            framePages[frame] = pgno;
+            resident.put(pgno, frame);
+            policy.recordLoad(frame, new HeapPageId(0, pgno));
+        }
+        return hits;
+    }
+
+    /**
+     * A small hot set that is referenced over and over, interrupted by
+     * one-time scans over many cold pages.
+     */
+    private static int[] hotSetWithScans() {
+        int[] trace = new int[3000];
+        int cold = 100;
+        for (int i = 0; i < trace.length; i++) {
+            if (i % 30 < 20) {
+                trace[i] = i % 4;
+            } else {
+                trace[i] = cold++;
+            }
+        }
+        return trace;
+    }
+
+    @Test
+    public void lruEvictsLeastRecentlyUsed() {
+        EvictionPolicy p = new LruPolicy();
+        p.setNumFrames(3);
+        p.recordLoad(0, new HeapPageId(0, 0));
+        p.recordLoad(1, new HeapPageId(0, 1));
+        p.recordLoad(2, new HeapPageId(0, 2));
+        p.recordAccess(0);
+        assertEquals(1, p.chooseVictim(ALL));
+    }
+
+    @Test
+    public void clockGivesSecondChance() {
+        EvictionPolicy p = new ClockPolicy();
+        p.setNumFrames(3);
+        p.recordLoad(0, new HeapPageId(0, 0));
+        p.recordLoad(1, new HeapPageId(0, 1));
+        p.recordLoad(2, new HeapPageId(0, 2));
+        // first sweep clears all bits, so frame 0 goes first
+        assertEquals(0, p.chooseVictim(ALL));
+        p.recordRemoval(0);
+        p.recordLoad(0, new HeapPageId(0, 3));
+        p.recordAccess(2);
+        assertEquals(1, p.chooseVictim(ALL));
+    }
+
+    @Test
+    public void lruKPrefersPagesWithFewReferences() {
+        EvictionPolicy p = new LruKPolicy(2);
+        p.setNumFrames(2);
+        p.recordLoad(0, new HeapPageId(0, 0));
+        p.recordAccess(0);
+        p.recordLoad(1, new HeapPageId(0, 1));
+        // frame 1 is more recent, but has only one reference
+        assertEquals(1, p.chooseVictim(ALL));
+    }
+
+    @Test
+    public void twoQueuePromotesOnlyReReferencedPages() {
+        EvictionPolicy p = new TwoQueuePolicy();
+        p.setNumFrames(4);
+        for (int i = 0; i < 4; i++) {
+            p.recordLoad(i, new HeapPageId(0, i));
+        }
+        // A1in is over its limit, so its oldest page goes first
+        assertEquals(0, p.chooseVictim(ALL));
+        p.recordRemoval(0);
+        // page 0 comes back while remembered in A1out: it goes into Am
+        p.recordLoad(0, new HeapPageId(0, 0));
+        assertEquals(1, p.chooseVictim(ALL));
+    }
+
+    @Test
+    public void policiesRespectEvictable() {
+        for (EvictionPolicy p : allPolicies()) {
+            p.setNumFrames(2);
+            p.recordLoad(0, new HeapPageId(0, 0));
+            p.recordLoad(1, new HeapPageId(0, 1));
+            assertEquals(-1, p.chooseVictim(NONE));
+            final int pinned = p.chooseVictim(ALL);
+            int other = p.chooseVictim(new EvictionPolicy.Evictable() {
+                public boolean canEvict(int frame) {
+                    return frame != pinned;
+                }
+            });
+            assertEquals(1 - pinned, other);
+        }
+    }
+
+    @Test
+    public void scanResistantPoliciesBeatLru() {
+        int[] trace = hotSetWithScans();
+        int lru = replay(new LruPolicy(), 10, trace);
+        int lruK = replay(new LruKPolicy(), 10, trace);
+        int twoQ = replay(new TwoQueuePolicy(), 10, trace);
+        assertTrue("LRU-2 " + lruK + " vs LRU " + lru, lruK > lru);
+        assertTrue("2Q " + twoQ + " vs LRU " + lru, twoQ > lru);
+    }
+
+    /**
+     * A page that only remembers its id and dirtier.
+     */
+    static class DirtyablePage extends BufferPoolLookupBenchmark.StubPage {
+        private TransactionId dirtier;
+
+        DirtyablePage(PageId pid) {
+            super(pid);
+        }
+
+        public TransactionId isDirty() {
+            return dirtier;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            dirtier = dirty ? tid : null;
+        }
+    }
+
+    @Test
+    public void bufferPoolDoesNotEvictDirtyOrPinnedPages() throws Exception {
+        TestUtil.SkeletonFile file = new TestUtil.SkeletonFile(-7, Utility.getTupleDesc(1)) {
+            public Page readPage(PageId id) {
+                return new DirtyablePage(id);
+            }
+        };
+        Database.getCatalog().addTable(file, "stub");
+        for (EvictionPolicy policy : allPolicies()) {
+            BufferPool bp = Database.resetBufferPool(2, policy);
+            TransactionId tid = new TransactionId();
+            PageId p0 = new HeapPageId(-7, 0);
+            PageId p1 = new HeapPageId(-7, 1);
+            Page page0 = bp.getPage(tid, p0, Permissions.READ_WRITE);
+            page0.markDirty(true, tid);
+            bp.getPage(tid, p1, Permissions.READ_ONLY);
+            assertTrue(bp.pinPage(p1));
+            try {
+                bp.getPage(tid, new HeapPageId(-7, 2), Permissions.READ_ONLY);
+                fail("expected DbException");
+            } catch (DbException e) {
+                // expected
+            }
+            bp.unpinPage(p1);
+            bp.getPage(tid, new HeapPageId(-7, 2), Permissions.READ_ONLY);
+            assertSame(page0, bp.getPage(tid, p0, Permissions.READ_ONLY));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FileHandleCacheTest extends SimpleDbTestBase {
+
+    private File[] files;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("table", ".dat");
+            files[i].deleteOnExit();
+        }
+    }
+
+    @Test
+    public void idleFilesStayOpen() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        cache.open(files[0]).close();
+        cache.open(files[0]).close();
+        assertEquals(1, cache.getOpenCalls());
+        assertEquals(1, cache.getOpenCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIdleFileIsClosed() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        FileHandleCache.Handle h0 = cache.open(files[0]);
+        FileChannel ch0 = h0.channel();
+        h0.close();
+        cache.open(files[1]).close();
+        cache.open(files[0]).close();
+        cache.open(files[2]).close();
+
+        // files[1] was used least recently
+        assertEquals(2, cache.getOpenCount());
+        assertTrue(ch0.isOpen());
+        cache.open(files[1]).close();
+        assertEquals(4, cache.getOpenCalls());
+    }
+
+    @Test
+    public void filesInUseAreNotClosed() throws Exception {
+        FileHandleCache cache = new FileHandleCache(1);
+        FileHandleCache.Handle h0 = cache.open(files[0]);
+        FileHandleCache.Handle h1 = cache.open(files[1]);
+        assertEquals(2, cache.getOpenCount());
+        assertTrue(h0.channel().isOpen());
+        assertTrue(h1.channel().isOpen());
+
+        h0.close();
+        assertEquals(1, cache.getOpenCount());
+        assertFalse(h0.channel().isOpen());
+        assertTrue(h1.channel().isOpen());
+        h1.close();
+        assertEquals(1, cache.getOpenCount());
+    }
+
+    @Test
+    public void closeWaitsForLastHandle() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        FileHandleCache.Handle h = cache.open(files[0]);
+        cache.close(files[0]);
+        assertTrue(h.channel().isOpen());
+        h.close();
+        assertFalse(h.channel().isOpen());
+        assertEquals(0, cache.getOpenCount());
+    }
+
+    @Test
+    public void missingFilesAreNotCreatedForReads() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        File missing = new File(files[0].getPath() + ".missing");
+        try {
+            cache.open(missing);
+            fail("expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertFalse(missing.exists());
+        assertEquals(0, cache.getOpenCount());
+
+        // a table with no file yet reads as empty
+        HeapFile hf = Utility.openHeapFile(2, missing);
+        assertEquals(0, hf.numPages());
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(504, page.getNumEmptySlots());
+        assertFalse(missing.exists());
+    }
+
+    @Test
+    public void readsDoNotOpenForWriting() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        FileHandleCache.Handle r = cache.open(files[0]);
+        try {
+            r.channel().write(ByteBuffer.allocate(1), 0);
+            fail("expected NonWritableChannelException");
+        } catch (NonWritableChannelException e) {
+            // expected
+        }
+
+        // the first write reopens the file, and the reader keeps its channel
+        FileHandleCache.Handle w = cache.open(files[0], true);
+        assertEquals(1, w.channel().write(ByteBuffer.allocate(1), 0));
+        assertEquals(2, cache.getOpenCalls());
+        assertTrue(r.channel().isOpen());
+        r.close();
+        assertTrue(r.channel().isOpen());
+        w.close();
+        assertFalse(r.channel().isOpen());
+        assertTrue(w.channel().isOpen());
+
+        // later readers share the writable channel
+        FileHandleCache.Handle r2 = cache.open(files[0]);
+        assertSame(w.channel(), r2.channel());
+        r2.close();
+        assertEquals(2, cache.getOpenCalls());
+    }
+
+    @Test
+    public void asyncChannelsAreClosedWithTheirFile() throws Exception {
+        FileHandleCache cache = new FileHandleCache(1);
+        FileHandleCache.Handle h = cache.open(files[0]);
+        AsynchronousFileChannel ch = h.asyncChannel();
+        assertSame(ch, h.asyncChannel());
+        // in use, so not closed when another file needs the room
+        cache.open(files[1]).close();
+        assertTrue(ch.isOpen());
+        h.close();
+        cache.open(files[1]).close();
+        assertFalse(ch.isOpen());
+        assertEquals(1, cache.getOpenCount());
+    }
+
+    @Test
+    public void asyncReadsGiveBackTheirHandles() throws Exception {
+        Database.getFileHandleCache().setCapacity(1);
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapPage pa = (HeapPage) a.readPageAsync(new HeapPageId(a.getId(), 0)).get();
+        assertEquals(0, pa.getNumEmptySlots());
+        // a's file is idle again, so reading b closes it
+        b.readPage(new HeapPageId(b.getId(), 0));
+        assertEquals(1, Database.getFileHandleCache().getOpenCount());
+
+        File missing = new File(files[2].getPath() + ".missing");
+        HeapFile m = Utility.openHeapFile(2, missing);
+        HeapPage pm = (HeapPage) m.readPageAsync(new HeapPageId(m.getId(), 0)).get();
+        assertEquals(504, pm.getNumEmptySlots());
+        assertFalse(missing.exists());
+    }
+
+    @Test
+    public void tablesWorkWithOneOpenFile() throws Exception {
+        Database.getFileHandleCache().setCapacity(1);
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        TransactionId tid = new TransactionId();
+        for (int pgno = 0; pgno < 3; pgno++) {
+            HeapPage pa = (HeapPage) a.readPage(new HeapPageId(a.getId(), pgno));
+            HeapPage pb = (HeapPage) b.readPage(new HeapPageId(b.getId(), pgno));
+            assertEquals(0, pa.getNumEmptySlots());
+            assertEquals(0, pb.getNumEmptySlots());
+        }
+        a.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        b.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, a.numPages());
+        assertEquals(4, b.numPages());
+        assertEquals(1, Database.getFileHandleCache().getOpenCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleCacheTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    private static int countTuples(HeapPage page) {
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void framesAreDisjointViews() {
+        FrameArena arena = new FrameArena(3, 16);
+        assertEquals(3, arena.numFrames());
+        ByteBuffer f1 = arena.frame(1);
+        assertTrue(f1.isDirect());
+        assertEquals(16, f1.remaining());
+        f1.put((byte) 7);
+        assertEquals(7, arena.frame(1).get(0));
+        assertEquals(0, arena.frame(0).get(15));
+        assertEquals(0, arena.frame(2).get(0));
+    }
+
+    @Test
+    public void framesSpanChunks() {
+        FrameArena arena = new FrameArena(5, 16, 2);
+        assertEquals(3, arena.numChunks());
+        assertEquals(80, arena.capacity());
+        for (int i = 0; i < 5; i++) {
+            ByteBuffer f = arena.frame(i);
+            assertTrue(f.isDirect());
+            assertEquals(16, f.remaining());
+            f.put(15, (byte) (i + 1));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, arena.frame(i).get(0));
+            assertEquals(i + 1, arena.frame(i).get(15));
+        }
+    }
+
+    @Test
+    public void arenaSizeIsValidated() {
+        // the last would need a 2 GiB chunk
+        int[][] bad = {{-1, 16, 1}, {1, 0, 1}, {1, 16, 0}, {1, 4096, 1 << 19}};
+        for (int[] args : bad) {
+            try {
+                new FrameArena(args[0], args[1], args[2]);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(0, new FrameArena(0, 16).capacity());
+    }
+
+    @Test
+    public void pageOverFrameUsesFrameAsBeforeImage() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        FrameArena arena = new FrameArena(1, BufferPool.getPageSize());
+        arena.frame(0).put(HeapPageReadTest.EXAMPLE_DATA);
+
+        HeapPage page = new HeapPage(pid, arena.frame(0));
+        int numTuples = HeapPageReadTest.EXAMPLE_VALUES.length;
+        assertEquals(numTuples, countTuples(page));
+        assertNull(page.oldData);
+
+        page.deleteTuple(page.iterator().next());
+        assertEquals(numTuples, countTuples(page.getBeforeImage()));
+
+        page.setBeforeImage();
+        assertEquals(numTuples - 1, countTuples(page.getBeforeImage()));
+        assertEquals(numTuples - 1, countTuples(new HeapPage(pid, arena.frame(0))));
+
+        // once detached, the frame may be reused without affecting the page
+        page.detachFrame();
+        arena.frame(0).put(HeapPage.createEmptyPageData());
+        assertEquals(numTuples - 1, countTuples(page.getBeforeImage()));
+    }
+
+    @Test
+    public void offHeapPoolScansTableLargerThanPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5, new LruPolicy(), true);
+        assertTrue(bp.isOffHeap());
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        assertTrue(f.numPages() > 5);
+        SystemTestUtil.matchTuples(f, tuples);
+        // and again, reusing every frame at least once more
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    /**
+     * Creates a table of three full pages.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 3 * 504, 1 << 16, null, null);
+        file.deleteOnExit();
+        FreeSpaceMap.sideFileFor(file).deleteOnExit();
+        hf = Utility.openHeapFile(2, file);
+    }
+
+    @Test
+    public void mapTracksRoom() throws Exception {
+        File side = File.createTempFile("table", ".fsm");
+        side.delete();
+        side.deleteOnExit();
+        FreeSpaceMap fsm = new FreeSpaceMap(side, 3);
+        assertEquals(0, fsm.pageWithRoom());
+        fsm.setHasRoom(0, false);
+        fsm.setHasRoom(1, false);
+        assertEquals(2, fsm.pageWithRoom());
+        fsm.setHasRoom(2, false);
+        assertEquals(-1, fsm.pageWithRoom());
+        fsm.setHasRoom(9, true);
+        assertEquals(9, fsm.pageWithRoom());
+        fsm.save();
+
+        FreeSpaceMap loaded = new FreeSpaceMap(side, 10);
+        assertEquals(9, loaded.pageWithRoom());
+        assertFalse(loaded.hasRoom(0));
+
+        // a map saved for another number of pages is not trusted
+        FreeSpaceMap stale = new FreeSpaceMap(side, 4);
+        assertEquals(0, stale.pageWithRoom());
+    }
+
+    @Test
+    public void insertSkipsFullPagesAndAppends() throws Exception {
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(4, hf.numPages());
+        FreeSpaceMap fsm = hf.freeSpaceMap();
+        for (int i = 0; i < 3; i++) {
+            assertFalse(fsm.hasRoom(i));
+        }
+        assertEquals(3, fsm.pageWithRoom());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void insertReusesRoomLeftByDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        assertTrue(hf.freeSpaceMap().hasRoom(1));
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, hf.numPages());
+        assertFalse(hf.freeSpaceMap().hasRoom(1));
+        bp.transactionComplete(tid);
+    }
+
+    @Test
+    public void mapIsSavedOnClose() throws Exception {
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+        assertTrue(FreeSpaceMap.sideFileFor(file).exists());
+
+        FreeSpaceMap loaded = new FreeSpaceMap(FreeSpaceMap.sideFileFor(file), hf.numPages());
+        assertEquals(3, loaded.pageWithRoom());
+    }
+
+    @Test
+    public void mapIsSavedWithAllPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(FreeSpaceMap.sideFileFor(file).exists());
+        Database.getBufferPool().flushAllPages();
+
+        FreeSpaceMap loaded = new FreeSpaceMap(FreeSpaceMap.sideFileFor(file), hf.numPages());
+        assertEquals(3, loaded.pageWithRoom());
+    }
+
+    @Test
+    public void abortGivesRoomBack() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid);
+
+        // an insert fills the page again, but is undone
+        TransactionId aborted = new TransactionId();
+        bp.insertTuple(aborted, hf.getId(), Utility.getHeapTuple(7, 2));
+        assertFalse(hf.freeSpaceMap().hasRoom(1));
+        bp.transactionComplete(aborted, false);
+        assertTrue(hf.freeSpaceMap().hasRoom(1));
+
+        TransactionId next = new TransactionId();
+        Tuple t = Utility.getHeapTuple(8, 2);
+        bp.insertTuple(next, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, hf.numPages());
+        bp.transactionComplete(next);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeapFileExtentTest extends TestUtil.CreateHeapFile {
+
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private void fillPages(int pages) throws Exception {
+        for (int i = 0; i < pages * 504; i++) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private long pagesOnDisk() {
+        return empty.getFile().length() / BufferPool.getPageSize();
+    }
+
+    @Test
+    public void appendsTakePagesFromExtent() throws Exception {
+        empty.setExtentPages(8);
+        fillPages(1);
+        assertEquals(1, pagesOnDisk());
+
+        // the second page needs a new extent, and the next seven use it
+        fillPages(1);
+        assertEquals(2, empty.numPages());
+        assertEquals(9, pagesOnDisk());
+        fillPages(7);
+        assertEquals(9, empty.numPages());
+        assertEquals(9, pagesOnDisk());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(10, empty.numPages());
+        assertEquals(17, pagesOnDisk());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void closeGivesBackUnusedPages() throws Exception {
+        fillPages(2);
+        assertEquals(1 + HeapFile.DEFAULT_EXTENT_PAGES, pagesOnDisk());
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        assertEquals(2, pagesOnDisk());
+
+        // closed files reopen and keep growing
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void reopenLeavesOutUnusedPages() throws Exception {
+        fillPages(2);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1 + HeapFile.DEFAULT_EXTENT_PAGES, pagesOnDisk());
+
+        // as after a restart, without the file being closed
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(2, reopened.numPages());
+        reopened.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, reopened.numPages());
+        assertEquals(1 + HeapFile.DEFAULT_EXTENT_PAGES, pagesOnDisk());
+        Database.getBufferPool().transactionComplete(tid);
+        reopened.close();
+        assertEquals(3, pagesOnDisk());
+    }
+
+    @Test
+    public void extentMustHavePages() {
+        try {
+            empty.setExtentPages(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void catalogSetsExtent() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("wide (a int, b int) extent=128\n");
+        w.write("mapped (a int) mmap extent=16\n");
+        w.write("plain (a int)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        Catalog c = Database.getCatalog();
+        HeapFile wide = (HeapFile) c.getDatabaseFile(c.getTableId("wide"));
+        HeapFile mapped = (HeapFile) c.getDatabaseFile(c.getTableId("mapped"));
+        HeapFile plain = (HeapFile) c.getDatabaseFile(c.getTableId("plain"));
+        assertEquals(128, wide.getExtentPages());
+        assertFalse(wide.isMapped());
+        assertEquals(16, mapped.getExtentPages());
+        assertTrue(mapped.isMapped());
+        assertEquals(HeapFile.DEFAULT_EXTENT_PAGES, plain.getExtentPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileExtentTest.class);
+    }
+}
@@ -80,6 +80,83 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.writePage(), read back through the same file
+     */
+    @Test
+    public void writePageThenReadPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertEquals(485, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+
+        // a page past the end of the file extends it
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        hf.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        assertEquals(2, hf.numPages());
+        assertEquals(504, ((HeapPage) hf.readPage(next)).getNumEmptySlots());
+
+        // closing is harmless; the file is reopened on demand
+        hf.close();
+        assertEquals(485, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    @Test
+    public void numPagesIsCachedAndGrowsWithWrites() throws Exception {
+        assertEquals(1, hf.numPages());
+        // writing the last page first extends the file past the others
+        for (int i = 3; i >= 1; i--) {
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i),
+                    HeapPage.createEmptyPageData()));
+            assertEquals(4, hf.numPages());
+        }
+        assertEquals(4 * BufferPool.getPageSize(), hf.getFile().length());
+    }
+
+    @Test
+    public void readPagesMatchesReadPage() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 6 * 504, null, null);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int pgno : new int[]{4, 1, 2, 5, 2, 0, 7}) {
+            pids.add(new HeapPageId(big.getId(), pgno));
+        }
+        List<Page> pages = big.readPages(pids);
+        assertEquals(pids.size(), pages.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(big.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+        // past the end of the file, like readPage
+        assertEquals(504, ((HeapPage) pages.get(6)).getNumEmptySlots());
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<Page> cached = bp.getPages(tid, pids.subList(0, 6), Permissions.READ_ONLY);
+        assertEquals(5, bp.getMissCount());
+        assertEquals(0, bp.getHitCount());
+        assertSame(cached.get(2), cached.get(4));
+        for (int i = 0; i < 6; i++) {
+            assertSame(cached.get(i), bp.getPage(tid, pids.get(i), Permissions.READ_ONLY));
+        }
+        assertEquals(5, bp.getMissCount());
+    }
+
+    @Test
+    public void getPagesReadsIntoFrames() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, new LruPolicy(), true);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int pgno = 0; pgno < 3; pgno++) {
+            pids.add(new HeapPageId(big.getId(), pgno));
+        }
+        List<Page> pages = bp.getPages(tid, pids, Permissions.READ_ONLY);
+        for (int i = 0; i < 3; i++) {
+            // as read by getPage, the page is over its frame
+            assertTrue(((HeapPage) pages.get(i)).inFrame());
+            assertArrayEquals(big.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
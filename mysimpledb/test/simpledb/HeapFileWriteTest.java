@@ -6,6 +6,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -47,6 +49,89 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.deleteTuples()
+     */
+    @Test
+    public void deleteTuples() throws Exception {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        for (int i = 0; i < 1008; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i % 3 == 0) {
+                rids.add(t.getRecordId());
+            }
+        }
+        ArrayList<Page> pages = empty.deleteTuples(tid, rids);
+        assertEquals(2, pages.size());
+        assertEquals(168, ((HeapPage) pages.get(0)).getNumEmptySlots());
+        assertEquals(168, ((HeapPage) pages.get(1)).getNumEmptySlots());
+
+        try {
+            empty.deleteTuples(tid, rids.subList(0, 1));
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A batch delete that fails partway is undone by aborting
+     */
+    @Test
+    public void deleteTuplesFailureIsUndone() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        for (int i = 0; i < 1008; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), t);
+            rids.add(t.getRecordId());
+        }
+        bp.transactionComplete(tid);
+
+        // the repeated tuple fails after both pages have been emptied
+        rids.add(rids.get(600));
+        TransactionId deleter = new TransactionId();
+        try {
+            bp.deleteTuples(deleter, empty.getId(), rids);
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(deleter, false);
+
+        int n = 0;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(1008, n);
+    }
+
+    /**
+     * Unit test for the Delete operator
+     */
+    @Test
+    public void deleteOperator() throws Exception {
+        for (int i = 0; i < 600; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Delete delete = new Delete(tid, new SeqScan(tid, empty.getId(), ""));
+        delete.open();
+        assertTrue(delete.hasNext());
+        assertEquals(new IntField(600), delete.next().getField(0));
+        assertFalse(delete.hasNext());
+        delete.close();
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -14,6 +14,11 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -105,6 +110,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples are decoded from the page bytes when they are asked for, and
+     * the page does not keep them.
+     */
+    @Test
+    public void decodedTuplesAreNotKept() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        assertNull(page.tuples[0]);
+        assertNotSame(first, page.iterator().next());
+
+        // tuples read are written back as they were read
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        // an inserted tuple is kept until the page bytes hold it
+        Tuple t = Utility.getHeapTuple(new int[]{7, 8});
+        page.insertTuple(t);
+        int slot = t.getRecordId().tupleno();
+        assertSame(t, page.tuples[slot]);
+        page.setBeforeImage();
+        assertNull(page.tuples[slot]);
+        Iterator<Tuple> it = page.iterator();
+        boolean found = false;
+        while (it.hasNext()) {
+            Tuple read = it.next();
+            if (read.getRecordId().tupleno() == slot) {
+                assertTrue(TestUtil.compareTuples(t, read));
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
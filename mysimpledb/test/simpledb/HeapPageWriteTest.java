@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -130,6 +134,132 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.deleteTuple(RecordId)
+     */
+    @Test
+    public void deleteByRecordId() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        // any tuple naming the slot deletes it, not just the page's own
+        Tuple copy = Utility.getHeapTuple(0, 2);
+        copy.setRecordId(new RecordId(pid, 3));
+        page.deleteTuple(copy);
+        assertFalse(page.isSlotUsed(3));
+        page.deleteTuple(new RecordId(pid, 4));
+        assertEquals(free + 2, page.getNumEmptySlots());
+
+        RecordId[] bad = {new RecordId(pid, 3), new RecordId(pid, -1),
+                new RecordId(pid, page.numSlots), new RecordId(new HeapPageId(-1, 0), 5)};
+        for (RecordId rid : bad) {
+            try {
+                page.deleteTuple(rid);
+                throw new Exception("deleted " + rid + "; expected DbException");
+            } catch (DbException e) {
+                // explicitly ignored
+            }
+        }
+        assertEquals(free + 2, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.writePageData()
+     */
+    @Test
+    public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        // decode a few tuples, leaving runs that are not decoded around them
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple second = it.next();
+        page.deleteTuple(second);
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(BufferPool.getPageSize() + 3);
+        buf.position(3);
+        page.writePageData(buf);
+        assertEquals(BufferPool.getPageSize() + 3, buf.position());
+
+        byte[] written = new byte[BufferPool.getPageSize()];
+        buf.position(3);
+        buf.get(written);
+        assertArrayEquals(page.getPageData(), written);
+
+        HeapPage copy = new HeapPage(pid, written);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Tuple[] bySlot = new Tuple[copy.numSlots];
+        Iterator<Tuple> copied = copy.iterator();
+        while (copied.hasNext()) {
+            Tuple t = copied.next();
+            bySlot[t.getRecordId().tupleno()] = t;
+        }
+        assertEquals(new IntField(7), bySlot[1].getField(0));
+        assertEquals(new IntField(10), bySlot[20].getField(1));
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test
+    public void beforeImageIsPageAsRead() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        int free = page.getNumEmptySlots();
+        // a clean page keeps no copy of its own
+        assertNull(page.oldData);
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        TransactionId tid = new TransactionId();
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+
+        page.setBeforeImage();
+        page.markDirty(false, tid);
+        assertEquals(free + 1, page.getBeforeImage().getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Slots are found a word of the header at a time; check the slots on
+     * either side of word boundaries.
+     */
+    @Test
+    public void slotsAcrossHeaderWords() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        Tuple[] tuples = new Tuple[slots];
+        for (int i = 0; i < slots; i++) {
+            tuples[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(tuples[i]);
+            assertEquals(i, tuples[i].getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+
+        page.deleteTuple(tuples[127]);
+        page.deleteTuple(tuples[64]);
+        page.deleteTuple(tuples[slots - 1]);
+        assertEquals(3, page.getNumEmptySlots());
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(t);
+        assertEquals(64, t.getRecordId().tupleno());
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        assertEquals(2, read.getNumEmptySlots());
+        assertFalse(read.isSlotUsed(127));
+        assertTrue(read.isSlotUsed(128));
+        assertFalse(read.isSlotUsed(slots - 1));
+        int n = 0;
+        Iterator<Tuple> it = read.iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        assertEquals(slots - 2, n);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,277 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final long WAIT_MILLIS = 200;
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    /**
+     * Tries to acquire a lock in a new thread.
+     */
+    static class Acquirer extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired = false;
+        volatile Exception error = null;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private Acquirer startAcquirer(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        Acquirer a = new Acquirer(lm, tid, pid, perm);
+        a.start();
+        a.join(WAIT_MILLIS);
+        return a;
+    }
+
+    /**
+     * Waits until the thread is parked in a wait, or has finished.
+     */
+    private static void awaitBlocked(Thread t) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (t.isAlive() && t.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    @Test
+    public void sharedLocksAreCompatible() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(startAcquirer(tid2, p0, Permissions.READ_ONLY).acquired);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    @Test
+    public void exclusiveBlocksOthers() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        Acquirer reader = startAcquirer(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(reader.acquired);
+        // an unrelated page is not affected
+        assertTrue(startAcquirer(tid2, p1, Permissions.READ_WRITE).acquired);
+
+        lm.release(tid1, p0);
+        reader.join(WAIT_MILLIS);
+        assertTrue(reader.acquired);
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    @Test
+    public void upgradeOnlySharer() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        // re-requesting a weaker lock is a no-op
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+    }
+
+    @Test
+    public void upgradeWaitsForOtherSharers() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        Acquirer upgrader = startAcquirer(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(upgrader.acquired);
+
+        lm.releaseAll(tid2);
+        upgrader.join(WAIT_MILLIS);
+        assertTrue(upgrader.acquired);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+    }
+
+    @Test
+    public void releaseAllDropsEveryLock() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p1, Permissions.READ_WRITE);
+        assertEquals(2, lm.getLockedPages(tid1).size());
+        lm.releaseAll(tid1);
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertFalse(lm.holdsLock(tid1, p1));
+        assertTrue(startAcquirer(tid2, p1, Permissions.READ_WRITE).acquired);
+    }
+
+    /**
+     * Sets up a deadlock between tid1 and tid2, where tid1 has done work1
+     * and tid2 has done work2, and returns their two blocked requests.
+     */
+    private Acquirer[] deadlock(int work1, int work2) throws Exception {
+        final HashMap<TransactionId, Integer> work = new HashMap<TransactionId, Integer>();
+        work.put(tid1, work1);
+        work.put(tid2, work2);
+        lm = new LockManager(LockManager.DEFAULT_STRIPES, new LockManager.WorkEstimator() {
+            public int workDone(TransactionId tid) {
+                return work.get(tid);
+            }
+        });
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p1, Permissions.READ_ONLY);
+        Acquirer a1 = startAcquirer(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(a1.acquired);
+        Acquirer a2 = startAcquirer(tid2, p0, Permissions.READ_WRITE);
+        return new Acquirer[]{a1, a2};
+    }
+
+    @Test
+    public void deadlockAbortsRequesterWithLessWork() throws Exception {
+        Acquirer[] a = deadlock(5, 1);
+        assertTrue(a[1].error instanceof TransactionAbortedException);
+        assertFalse(a[0].acquired);
+        assertNull(a[0].error);
+        assertEquals(1, lm.getDeadlocksDetected());
+        assertEquals(1, lm.getVictimsAborted());
+
+        lm.releaseAll(tid2);
+        a[0].join(WAIT_MILLIS);
+        assertTrue(a[0].acquired);
+    }
+
+    /**
+     * Two threads of tid1 wait at once, for tid2 and for tid3; the edge to
+     * tid2 must survive the second wait and the grant of the other.
+     */
+    @Test
+    public void deadlockThroughOneOfSeveralWaits() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p2, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_WRITE);
+        lm.acquire(tid3, p1, Permissions.READ_WRITE);
+        Acquirer a1 = startAcquirer(tid1, p0, Permissions.READ_ONLY);
+        Acquirer a2 = startAcquirer(tid1, p1, Permissions.READ_ONLY);
+        assertFalse(a1.acquired);
+        assertFalse(a2.acquired);
+        lm.releaseAll(tid3);
+        a2.join(WAIT_MILLIS);
+        assertTrue(a2.acquired);
+
+        Acquirer a3 = startAcquirer(tid2, p2, Permissions.READ_WRITE);
+        assertEquals(1, lm.getDeadlocksDetected());
+        a1.join(WAIT_MILLIS);
+        assertTrue(a1.error instanceof TransactionAbortedException
+                || a3.error instanceof TransactionAbortedException);
+    }
+
+    /**
+     * A transaction that gives up a page and then waits for the waiter it
+     * let through is not in a deadlock.
+     */
+    @Test
+    public void releasedLockLeavesNoWaitEdge() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            lm = new LockManager();
+            tid1 = new TransactionId();
+            tid2 = new TransactionId();
+            lm.acquire(tid1, p0, Permissions.READ_WRITE);
+            lm.acquire(tid2, p1, Permissions.READ_WRITE);
+            Acquirer waiter = new Acquirer(lm, tid2, p0, Permissions.READ_WRITE);
+            waiter.start();
+            awaitBlocked(waiter);
+
+            // as HeapFile.insertTuple does with a page that has no room
+            lm.release(tid1, p0);
+            Acquirer a = new Acquirer(lm, tid1, p1, Permissions.READ_ONLY);
+            a.start();
+            awaitBlocked(a);
+            waiter.join(WAIT_MILLIS);
+            assertTrue(waiter.acquired);
+            assertNull(a.error);
+            assertEquals(0, lm.getDeadlocksDetected());
+
+            lm.releaseAll(tid2);
+            a.join(WAIT_MILLIS);
+            assertTrue(a.acquired);
+        }
+    }
+
+    @Test
+    public void deadlockAbortsWaiterWithLessWork() throws Exception {
+        Acquirer[] a = deadlock(1, 5);
+        a[0].join(WAIT_MILLIS);
+        assertTrue(a[0].error instanceof TransactionAbortedException);
+        assertFalse(a[1].acquired);
+        assertNull(a[1].error);
+        assertEquals(1, lm.getDeadlocksDetected());
+
+        lm.releaseAll(tid1);
+        a[1].join(WAIT_MILLIS);
+        assertTrue(a[1].acquired);
+        assertEquals(1, lm.getVictimsAborted());
+    }
+
+    @Test
+    public void bufferPoolTakesLocksFromPermissions() throws Exception {
+        TestUtil.SkeletonFile file = new TestUtil.SkeletonFile(-7, Utility.getTupleDesc(1)) {
+            public Page readPage(PageId id) {
+                return new EvictionPolicyTest.DirtyablePage(id);
+            }
+        };
+        Database.getCatalog().addTable(file, "stub");
+        BufferPool bp = Database.getBufferPool();
+        PageId pid = new HeapPageId(-7, 0);
+
+        bp.getPage(tid1, pid, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid1, pid));
+        TestUtil.LockGrabber grabber = new TestUtil.LockGrabber(tid2, pid, Permissions.READ_ONLY);
+        grabber.setDaemon(true);
+        grabber.start();
+        grabber.join(WAIT_MILLIS);
+        assertFalse(grabber.acquired());
+
+        bp.transactionComplete(tid1);
+        assertFalse(bp.holdsLock(tid1, pid));
+        grabber.join(WAIT_MILLIS);
+        assertTrue(grabber.acquired());
+        assertTrue(bp.holdsLock(tid2, pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
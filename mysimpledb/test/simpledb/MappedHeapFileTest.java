@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 1 << 16,
+                null, tuples);
+        hf = new HeapFile(file, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    private int emptySlotsOnDisk(int pgno) {
+        // an unmapped view of the same file, reading through its channel
+        return ((HeapPage) new HeapFile(file, Utility.getTupleDesc(2))
+                .readPage(new HeapPageId(hf.getId(), pgno))).getNumEmptySlots();
+    }
+
+    @Test
+    public void scanMatchesUnmappedFile() throws Exception {
+        assertTrue(hf.isMapped());
+        SystemTestUtil.matchTuples(hf, tuples);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        assertArrayEquals(new HeapFile(file, Utility.getTupleDesc(2)).readPage(pid).getPageData(),
+                hf.readPage(pid).getPageData());
+    }
+
+    @Test
+    public void commitForcesWritesThroughMapping() throws Exception {
+        int before = emptySlotsOnDisk(0);
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        assertEquals(before, emptySlotsOnDisk(0));
+        bp.transactionComplete(tid);
+        assertEquals(before + 1, emptySlotsOnDisk(0));
+        assertEquals(before + 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    @Test
+    public void flushPagesForcesBeforeCommitIsLogged() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) bp.getPage(tid, p0, Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        page = (HeapPage) bp.getPage(tid, p1, Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        // one page written early, as by the page writer
+        assertTrue(bp.writeBack(p0));
+        assertTrue(hf.hasUnforcedWrites());
+
+        // as Transaction.commit does before logging the commit
+        bp.flushPages(tid);
+        assertFalse(hf.hasUnforcedWrites());
+        bp.transactionComplete(tid);
+    }
+
+    @Test
+    public void beforeImageSurvivesEarlyWrite() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        int before = page.getNumEmptySlots();
+        TransactionId tid = new TransactionId();
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        hf.writePage(page);
+        assertEquals(before + 1, emptySlotsOnDisk(0));
+        assertEquals(before, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    @Test
+    public void appendGrowsMapping() throws Exception {
+        int pages = hf.numPages();
+        HeapPageId next = new HeapPageId(hf.getId(), pages);
+        hf.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        assertEquals(pages + 1, hf.numPages());
+
+        HeapPage page = (HeapPage) hf.readPage(next);
+        assertEquals(504, page.getNumEmptySlots());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(page);
+        hf.force();
+        assertEquals(503, emptySlotsOnDisk(pages));
+        assertEquals((long) (pages + 1) * BufferPool.getPageSize(), file.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,267 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageWriterTest extends SimpleDbTestBase {
+
+    private static final int NUM_PAGES = 10;
+    private static final long WAIT_MILLIS = 5000;
+
+    private HeapFile f;
+    private int tuplesPerPage;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        f = SystemTestUtil.createRandomHeapFile(2, NUM_PAGES * tuplesPerPage, null, null);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().stopPageWriter();
+    }
+
+    private static int countTuples(HeapPage page) {
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    private int tuplesOnDisk(int pgno) {
+        return countTuples((HeapPage) f.readPage(new HeapPageId(f.getId(), pgno)));
+    }
+
+    /**
+     * Deletes one tuple from each of the first n pages of the table.
+     */
+    private void dirtyPages(BufferPool bp, int n) throws Exception {
+        dirtyPages(bp, 0, n);
+    }
+
+    /**
+     * Deletes one tuple from each page in [from, to).
+     */
+    private void dirtyPages(BufferPool bp, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, page.iterator().next());
+        }
+    }
+
+    private void awaitWrites(PageWriter writer, int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (writer.getPagesWritten() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, writer.getPagesWritten());
+    }
+
+    @Test
+    public void writerKeepsTargetFractionClean() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        PageWriter writer = bp.startPageWriter();
+        writer.setIntervalMillis(5);
+        writer.setTargetCleanFraction(0.5);
+        int logRecords = Database.getLogFile().getTotalRecords();
+
+        // up to half of the frames may stay dirty
+        dirtyPages(bp, NUM_PAGES / 2);
+        Thread.sleep(50);
+        assertEquals(0, writer.getPagesWritten());
+        assertEquals(NUM_PAGES / 2, writer.getQueueDepth());
+
+        // once more are dirtied, the writer cleans back down to half
+        dirtyPages(bp, NUM_PAGES / 2, NUM_PAGES);
+        awaitWrites(writer, NUM_PAGES / 2);
+        Thread.sleep(50);
+        assertEquals(NUM_PAGES / 2, writer.getPagesWritten());
+        assertEquals(NUM_PAGES / 2, writer.getQueueDepth());
+
+        writer.setTargetCleanFraction(1.0);
+        awaitWrites(writer, NUM_PAGES);
+        assertEquals(0, writer.getQueueDepth());
+        for (int i = 0; i < NUM_PAGES; i++) {
+            assertEquals(tuplesPerPage - 1, tuplesOnDisk(i));
+        }
+        // each write was logged first
+        assertTrue(Database.getLogFile().getTotalRecords() >= logRecords + NUM_PAGES);
+    }
+
+    @Test
+    public void abortUndoesStolenWrites() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        PageWriter writer = bp.startPageWriter();
+        writer.setIntervalMillis(5);
+        writer.setTargetCleanFraction(1.0);
+        dirtyPages(bp, 3);
+        awaitWrites(writer, 3);
+        assertEquals(tuplesPerPage - 1, tuplesOnDisk(0));
+
+        bp.transactionComplete(tid, false);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(tuplesPerPage, tuplesOnDisk(i));
+        }
+        TransactionId reader = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(reader, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(tuplesPerPage, countTuples(page));
+    }
+
+    @Test
+    public void commitMovesBeforeImageOfWrittenPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        dirtyPages(bp, 1);
+        // as Transaction.commit does before logging the commit
+        bp.flushPages(tid);
+        bp.transactionComplete(tid, true);
+        TransactionId reader = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(reader, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertNull(page.isDirty());
+        assertEquals(tuplesPerPage - 1, countTuples(page.getBeforeImage()));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A page that was committed and then stolen from a later transaction
+     * goes back to its committed state when that transaction aborts.
+     */
+    @Test
+    public void abortOfStolenPageKeepsEarlierCommit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES * 2);
+        Transaction t1 = new Transaction();
+        t1.start();
+        Tuple t = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(t1.getId(), f.getId(), t);
+        t1.commit();
+        int pgno = t.getRecordId().getPageId().pageNumber();
+        assertEquals(1, tuplesOnDisk(pgno));
+
+        PageWriter writer = bp.startPageWriter();
+        writer.setIntervalMillis(5);
+        writer.setTargetCleanFraction(1.0);
+        Transaction t2 = new Transaction();
+        t2.start();
+        bp.insertTuple(t2.getId(), f.getId(), Utility.getHeapTuple(2, 2));
+        awaitWrites(writer, 1);
+        assertEquals(2, tuplesOnDisk(pgno));
+
+        bp.transactionComplete(t2.getId(), false);
+        assertEquals(1, tuplesOnDisk(pgno));
+    }
+
+    @Test
+    public void evictionStealsOnlyWithWriter() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        dirtyPages(bp, 2);
+        try {
+            bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected: NO STEAL without a writer
+        }
+
+        bp.startPageWriter().setTargetCleanFraction(0.0);
+        bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(1, bp.getEvictionWriteCount());
+        bp.transactionComplete(tid, true);
+        assertEquals(tuplesPerPage - 1, tuplesOnDisk(0));
+        assertEquals(tuplesPerPage - 1, tuplesOnDisk(1));
+    }
+
+    @Test(timeout = 10000)
+    public void slowWriteDoesNotHoldUpPool() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TestUtil.SkeletonFile slow = new TestUtil.SkeletonFile(-9, Utility.getTupleDesc(1)) {
+            public Page readPage(PageId id) {
+                return new EvictionPolicyTest.DirtyablePage(id);
+            }
+
+            public void writePage(Page p) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        Database.getCatalog().addTable(slow, "slowwrite");
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        PageId pid = new HeapPageId(-9, 0);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(bp.getPage(tid, pid, Permissions.READ_WRITE));
+        bp.markDirtied(tid, dirtied);
+        PageWriter writer = bp.startPageWriter();
+        writer.setIntervalMillis(5);
+        writer.setTargetCleanFraction(1.0);
+        writing.await();
+
+        // pages are read into the pool while the write is stuck
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(tuplesPerPage, countTuples(page));
+        assertTrue(bp.isDirtyResident(pid));
+
+        release.countDown();
+        awaitWrites(writer, 1);
+        assertFalse(bp.isDirtyResident(pid));
+    }
+
+    @Test
+    public void pinnedPagesAreRetried() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        dirtyPages(bp, 1);
+        assertTrue(bp.pinPage(pid));
+        PageWriter writer = bp.startPageWriter();
+        writer.setIntervalMillis(5);
+        writer.setTargetCleanFraction(1.0);
+        Thread.sleep(50);
+        assertEquals(0, writer.getPagesWritten());
+        assertEquals(1, writer.getQueueDepth());
+
+        bp.unpinPage(pid);
+        awaitWrites(writer, 1);
+        assertEquals(tuplesPerPage - 1, tuplesOnDisk(0));
+    }
+
+    @Test
+    public void writesAreRateLimited() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        PageWriter writer = bp.startPageWriter();
+        writer.setIntervalMillis(5);
+        writer.setMaxWritesPerSecond(20);
+        long start = System.currentTimeMillis();
+        writer.setTargetCleanFraction(1.0);
+        dirtyPages(bp, 5);
+        awaitWrites(writer, 5);
+        // five writes at 20 per second are spread over at least 200ms
+        assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWriterTest.class);
+    }
+}
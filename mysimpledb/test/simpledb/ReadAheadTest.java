@@ -0,0 +1,70 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static int tuplesPerPage(int columns) {
+        return (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(columns).getSize() * 8 + 1);
+    }
+
+    @Test
+    public void sequentialScanIsReadAhead() throws Exception {
+        int pages = ReadAhead.MIN_TABLE_PAGES + 6;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, pages * tuplesPerPage(2), null, tuples);
+        assertEquals(pages, f.numPages());
+        BufferPool bp = Database.resetBufferPool(32);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertTrue(bp.getPrefetchCount() > 0);
+        // every page was read exactly once, either by the scan or ahead of it
+        assertTrue(bp.getMissCount() < pages);
+        assertTrue(bp.getMissCount() + bp.getPrefetchCount() >= pages);
+    }
+
+    @Test
+    public void smallTablesAreNotReadAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10 * tuplesPerPage(2), null, tuples);
+        BufferPool bp = Database.resetBufferPool(32);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, bp.getPrefetchCount());
+        assertEquals(10, bp.getMissCount());
+    }
+
+    @Test
+    public void readAheadDoesNotEvictDirtyPages() throws Exception {
+        int pages = ReadAhead.MIN_TABLE_PAGES;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, pages * tuplesPerPage(2), null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, page.iterator().next());
+        }
+        bp.prefetch(f, 10, 8).get();
+        // only the one clean frame could be used
+        assertEquals(1, bp.getPrefetchCount());
+        assertTrue(bp.isCached(new HeapPageId(f.getId(), 10)));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bp.isCached(new HeapPageId(f.getId(), i)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
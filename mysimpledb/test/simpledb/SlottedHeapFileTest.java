@@ -0,0 +1,253 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(TYPES, new String[]{"id", "name"});
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws IOException {
+        return new SlottedHeapPage(pid, td, new byte[BufferPool.getPageSize()]);
+    }
+
+    private static ArrayList<Tuple> tuples(TuplePage page) {
+        ArrayList<Tuple> l = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            l.add(it.next());
+        }
+        return l;
+    }
+
+    @Test
+    public void pageOfZeroesIsEmpty() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        assertTrue(page.isEmpty());
+        assertEquals(0, page.getNumTuples());
+        assertFalse(page.iterator().hasNext());
+        assertArrayEquals(new byte[BufferPool.getPageSize()], page.getPageData());
+    }
+
+    @Test
+    public void shortStringsTakeLessRoom() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "t" + n))) {
+            page.insertTuple(tuple(n, "t" + n));
+            n++;
+        }
+        // 4 + 2 + up to 4 bytes of tuple and a 4-byte slot each, where a
+        // HeapPage has room for 30 tuples of this TupleDesc
+        assertTrue(n > 250);
+        assertEquals(n, page.getNumTuples());
+        assertTrue(page.getFreeSpace() < 14);
+        try {
+            page.insertTuple(tuple(n, "t" + n));
+            fail("inserted into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void pageDataRoundTrips() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        page.insertTuple(tuple(1, ""));
+        // characters past ASCII take one byte too
+        page.insertTuple(tuple(2, "tw\u00f6"));
+        page.insertTuple(tuple(3, "a string of some length"));
+        SlottedHeapPage read = new SlottedHeapPage(pid, td, page.getPageData());
+        ArrayList<Tuple> l = tuples(read);
+        assertEquals(3, l.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new IntField(i + 1), l.get(i).getField(0));
+            assertEquals(tuples(page).get(i).getField(1), l.get(i).getField(1));
+            assertEquals(new RecordId(pid, i), l.get(i).getRecordId());
+        }
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
+    @Test
+    public void deletedSlotIsReused() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        for (int i = 0; i < 3; i++) {
+            page.insertTuple(tuple(i, "name" + i));
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(tuples(page).get(1));
+        assertEquals(2, page.getNumTuples());
+        assertEquals(free + 4 + 2 + 5, page.getFreeSpace());
+        try {
+            page.deleteTuple(tuple(1, "name1"));
+            fail("deleted a tuple that is not on the page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        Tuple t = tuple(9, "a longer name than before");
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+        SlottedHeapPage read = new SlottedHeapPage(pid, td, page.getPageData());
+        assertEquals(new StringField("a longer name than before", Type.STRING_LEN),
+                tuples(read).get(1).getField(1));
+    }
+
+    @Test
+    public void beforeImageIsPageAsRead() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+        page.insertTuple(tuple(2, "two"));
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        page.setBeforeImage();
+        assertEquals(2, page.getBeforeImage().getNumTuples());
+        // tuples not decoded yet are copied from the new before image
+        SlottedHeapPage read = new SlottedHeapPage(pid, td, page.getPageData());
+        read.insertTuple(tuple(3, "three"));
+        read.setBeforeImage();
+        assertEquals(new StringField("two", Type.STRING_LEN), tuples(read).get(1).getField(1));
+    }
+
+    private File writeText(int rows) throws IOException {
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < rows; i++) {
+            w.write(i + ",name" + i + "\n");
+        }
+        w.close();
+        return text;
+    }
+
+    @Test
+    public void encodedFileScans() throws Exception {
+        File text = writeText(2000);
+        File data = File.createTempFile("table", ".dat");
+        data.deleteOnExit();
+        SlottedHeapFileEncoder.convert(text, data, BufferPool.getPageSize(), TYPES, ',');
+        HeapFile hf = new SlottedHeapFile(data, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // about 18 bytes a tuple with its slot, where a HeapFile of this
+        // TupleDesc takes 67 pages
+        assertEquals(9, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(n), t.getField(0));
+            assertEquals(new StringField("name" + n, Type.STRING_LEN), t.getField(1));
+            n++;
+        }
+        it.close();
+        assertEquals(2000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void insertsAndDeletesReachTheDisk() throws Exception {
+        File text = writeText(10);
+        File data = File.createTempFile("table", ".dat");
+        data.deleteOnExit();
+        SlottedHeapFileEncoder.convert(text, data, BufferPool.getPageSize(), TYPES, ',');
+        HeapFile hf = new SlottedHeapFile(data, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 10; i < 1000; i++) {
+            bp.insertTuple(tid, hf.getId(), tuple(i, "name" + i));
+        }
+        TuplePage first = (TuplePage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(tid, first.iterator().next());
+        bp.transactionComplete(tid);
+
+        HeapFile reopened = new SlottedHeapFile(data, td);
+        int n = 0;
+        for (int pgno = 0; pgno < reopened.numPages(); pgno++) {
+            n += ((SlottedHeapPage) reopened.readPage(new HeapPageId(hf.getId(), pgno))).getNumTuples();
+        }
+        assertEquals(999, n);
+    }
+
+    @Test
+    public void pageWithRoomForSmallerTuplesStaysInMap() throws Exception {
+        File data = File.createTempFile("table", ".dat");
+        data.deleteOnExit();
+        HeapFile hf = new SlottedHeapFile(data, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        String longName = "a name longer than the room left";
+        SlottedHeapPage first;
+        int i = 0;
+        do {
+            bp.insertTuple(tid, hf.getId(), tuple(i++, ""));
+            first = (SlottedHeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        } while (first.hasRoomFor(tuple(0, longName)));
+        assertFalse(first.isFull());
+
+        Tuple big = tuple(-1, longName);
+        bp.insertTuple(tid, hf.getId(), big);
+        assertEquals(1, big.getRecordId().getPageId().pageNumber());
+        assertTrue(hf.freeSpaceMap().hasRoom(0));
+        Tuple small = tuple(-2, "");
+        bp.insertTuple(tid, hf.getId(), small);
+        assertEquals(0, small.getRecordId().getPageId().pageNumber());
+        bp.transactionComplete(tid);
+    }
+
+    @Test
+    public void catalogOption() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String name = "t" + SystemTestUtil.getUUID().replace("-", "");
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (id int, name string) slotted\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof SlottedHeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
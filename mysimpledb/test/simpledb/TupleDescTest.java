@@ -167,6 +167,23 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.getOffset()
+     */
+    @Test
+    public void getOffset() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        assertEquals(0, td.getOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getOffset(2));
+        try {
+            td.getOffset(3);
+            Assert.fail("there is no field 3");
+        } catch (NoSuchElementException e) {
+            // expected to get here
+        }
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
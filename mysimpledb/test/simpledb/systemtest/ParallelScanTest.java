@@ -0,0 +1,168 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that split scans of a HeapFile, alone and merged by a
+ * ParallelSeqScan, return every tuple of the table exactly once.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+    private static final int PAGES = 12;
+
+    private static int tuplesPerPage() {
+        return (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    }
+
+    /**
+     * Waits until some thread is parked waiting for a page lock.
+     */
+    private static void awaitLockWaiter() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            for (Map.Entry<Thread, StackTraceElement[]> e : Thread.getAllStackTraces().entrySet()) {
+                if (e.getKey().getState() != Thread.State.WAITING) {
+                    continue;
+                }
+                for (StackTraceElement frame : e.getValue()) {
+                    if (frame.getClassName().equals(LockManager.class.getName())
+                            && frame.getMethodName().equals("acquire")) {
+                        return;
+                    }
+                }
+            }
+            Thread.sleep(5);
+        }
+        fail("nobody waited for the lock");
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test
+    public void splitsCoverTable() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage() - 5, null, null);
+        TransactionId tid = new TransactionId();
+        int total = 0;
+        for (int start = 0; start < PAGES; start += 5) {
+            total += count(f.iterator(tid, start, Math.min(start + 5, PAGES)));
+        }
+        assertEquals(PAGES * tuplesPerPage() - 5, total);
+        assertEquals(0, count(f.iterator(tid, 3, 3)));
+        assertEquals(0, count(f.iterator(tid, PAGES, PAGES + 4)));
+        assertEquals(2 * tuplesPerPage() - 5, count(f.iterator(tid, PAGES - 2, PAGES + 4)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void parallelScanMatchesTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage(), null, tuples);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", pool, 4);
+        SystemTestUtil.matchTuples(scan, tuples);
+
+        // rewinding starts the splits over
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+            if (n == 10) {
+                scan.rewind();
+            }
+        }
+        scan.close();
+        assertEquals(10 + tuples.size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+        pool.shutdown();
+    }
+
+    @Test
+    public void closeWaitsForSplits() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage(), null, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BufferPool bp = Database.getBufferPool();
+        final HeapPageId last = new HeapPageId(f.getId(), PAGES - 1);
+        TransactionId holder = new TransactionId();
+        bp.getPage(holder, last, Permissions.READ_WRITE);
+
+        TransactionId tid = new TransactionId();
+        final ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", pool, 4);
+        scan.open();
+        // a page is handed over once the next is read, so the split is
+        // waiting for the last page when the one before is taken
+        for (int i = 0; i < (PAGES - 2) * tuplesPerPage(); i++) {
+            scan.next();
+        }
+        awaitLockWaiter();
+        Thread closer = new Thread() {
+            public void run() {
+                scan.close();
+            }
+        };
+        closer.start();
+        closer.join(200);
+        assertTrue(closer.isAlive());
+        bp.transactionComplete(holder);
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        bp.transactionComplete(tid);
+
+        // no split takes the lock after tid is done
+        Thread next = new Thread() {
+            public void run() {
+                try {
+                    TransactionId t = new TransactionId();
+                    Database.getBufferPool().getPage(t, last, Permissions.READ_WRITE);
+                    Database.getBufferPool().transactionComplete(t);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        next.start();
+        next.join(5000);
+        assertFalse(next.isAlive());
+        pool.shutdown();
+    }
+
+    @Test
+    public void smallAndEmptyTables() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 700, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ParallelSeqScan(tid, small.getId(), "s"), tuples);
+
+        HeapFile empty = Utility.createEmptyHeapFile(
+                java.io.File.createTempFile("empty", ".dat").getPath(), 2);
+        ParallelSeqScan scan = new ParallelSeqScan(tid, empty.getId(), "e");
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that a full scan of a table larger than the buffer pool does not
+ * push a small, frequently used set of pages out of the pool.
+ */
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 20;
+    private static final int HOT_PAGES = 4;
+    private static final int COLD_PAGES = 2 * BUFFER_PAGES;
+
+    private HeapFile hot;
+    private HeapFile cold;
+    private ArrayList<ArrayList<Integer>> coldTuples;
+
+    private static int tuplesPerPage() {
+        return (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    }
+
+    private void createTables() throws Exception {
+        hot = SystemTestUtil.createRandomHeapFile(2, HOT_PAGES * tuplesPerPage(), null, null);
+        coldTuples = new ArrayList<ArrayList<Integer>>();
+        cold = SystemTestUtil.createRandomHeapFile(2, COLD_PAGES * tuplesPerPage(), null, coldTuples);
+    }
+
+    private void touchHotSet(TransactionId tid) throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    private int hotPagesCached() {
+        int cached = 0;
+        for (int i = 0; i < HOT_PAGES; i++) {
+            if (Database.getBufferPool().isCached(new HeapPageId(hot.getId(), i))) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Scans the cold table in another thread while this one keeps looking
+     * up hot pages, and returns the hit rate of those lookups.
+     */
+    private double hotHitRateDuringScan() throws Exception {
+        final Exception[] error = new Exception[1];
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    SystemTestUtil.matchTuples(cold, coldTuples);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        TransactionId tid = new TransactionId();
+        touchHotSet(tid);
+        scanner.start();
+        int lookups = 0;
+        int hits = 0;
+        while (scanner.isAlive() || lookups == 0) {
+            for (int i = 0; i < HOT_PAGES; i++) {
+                PageId pid = new HeapPageId(hot.getId(), i);
+                if (Database.getBufferPool().isCached(pid)) {
+                    hits++;
+                }
+                lookups++;
+                Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            Thread.sleep(1);
+        }
+        scanner.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return (double) hits / lookups;
+    }
+
+    @Test
+    public void hotSetSurvivesConcurrentScan() throws Exception {
+        createTables();
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        double hitRate = hotHitRateDuringScan();
+        assertTrue("hot set hit rate " + hitRate, hitRate >= 0.99);
+        assertEquals(HOT_PAGES, hotPagesCached());
+        assertTrue(bp.getMissCount() >= COLD_PAGES);
+    }
+
+    @Test
+    public void hotSetSurvivesScanWithoutLookups() throws Exception {
+        createTables();
+        Database.resetBufferPool(BUFFER_PAGES);
+        TransactionId tid = new TransactionId();
+        touchHotSet(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(cold, coldTuples);
+        assertEquals(HOT_PAGES, hotPagesCached());
+    }
+
+    @Test
+    public void scanWithoutRingFloodsPool() throws Exception {
+        createTables();
+        Database.resetBufferPool(BUFFER_PAGES).setScanRingThreshold(Double.MAX_VALUE);
+        TransactionId tid = new TransactionId();
+        touchHotSet(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(cold, coldTuples);
+        assertEquals(0, hotPagesCached());
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that a Vacuum packs the tuples left after heavy deletes into as
+ * few pages as they need, without losing or duplicating any.
+ */
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private static int tuplesPerPage() {
+        return (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    }
+
+    /**
+     * Creates a table of PAGES full pages and deletes all but every
+     * keepEvery-th tuple, leaving the kept ones in tuples.
+     */
+    private HeapFile thinnedTable(int keepEvery, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage(), null, null);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (i++ % keepEvery == 0) {
+                tuples.add(SystemTestUtil.tupleToList(t));
+            } else {
+                doomed.add(t);
+            }
+        }
+        scan.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return f;
+    }
+
+    private static int pagesNeeded(int tuples) {
+        return (tuples + tuplesPerPage() - 1) / tuplesPerPage();
+    }
+
+    @Test
+    public void compactsAfterHeavyDeletes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = thinnedTable(9, tuples);
+        assertEquals(PAGES, f.numPages());
+
+        Vacuum vacuum = new Vacuum(f);
+        while (vacuum.step(200)) {
+            // keep going
+        }
+        assertEquals(pagesNeeded(tuples.size()), f.numPages());
+        assertEquals((long) f.numPages() * BufferPool.getPageSize(), f.getFile().length());
+        assertEquals(PAGES - f.numPages(), vacuum.getPagesTruncated());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // a compact file is left alone
+        long moved = vacuum.getTuplesMoved();
+        assertFalse(vacuum.step(200));
+        assertEquals(moved, vacuum.getTuplesMoved());
+
+        // the moves were committed to disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test
+    public void stepsAreBounded() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = thinnedTable(2, tuples);
+        Vacuum vacuum = new Vacuum(f);
+        assertTrue(vacuum.step(10));
+        assertEquals(10, vacuum.getTuplesMoved());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test
+    public void backgroundVacuum() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = thinnedTable(5, tuples);
+        Vacuum vacuum = new Vacuum(f);
+        vacuum.setTuplesPerStep(100);
+        vacuum.setIntervalMillis(10);
+        vacuum.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (f.numPages() > pagesNeeded(tuples.size()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        vacuum.shutdown();
+        assertEquals(pagesNeeded(tuples.size()), f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(VacuumTest.class);
+    }
+}